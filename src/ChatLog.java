@@ -0,0 +1,553 @@
+/**
+ * ChatLog class persists the chat and join/leave messages of the server.
+ * Messages are written to segmented append-only files by a background thread.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// ChatLog class with the segment list and the writer queue
+public class ChatLog {
+  private static final int RECORD_HEADER = 4 + 4 + 8 + 8;
+  private static final int INDEX_INTERVAL = 4096;
+  private static final int QUEUE_CAPACITY = 10000;
+  private static final int MAX_MESSAGE_BYTES = 1 << 20;
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final long retentionBytes;
+  private final long syncMillis;
+  private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final AtomicLong dropped = new AtomicLong();
+  private final List<Segment> segments = new ArrayList<>();
+  private long nextSeq;
+  private FileChannel logChannel;
+  private FileChannel indexChannel;
+  private Thread writerThread;
+  private volatile boolean closed;
+
+  /**
+   * Constructor for the ChatLog class.
+   * It recovers the existing segments and starts the writer thread.
+   *
+   * @param directory      the directory holding the segment files
+   * @param segmentBytes   the size at which a new segment is started
+   * @param retentionBytes the total size above which the oldest segments are deleted
+   * @param syncMillis     the interval between two fsyncs of the active segment
+   * @throws IOException if the directory or the segments cannot be read
+   */
+  public ChatLog(Path directory, long segmentBytes, long retentionBytes, long syncMillis) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.retentionBytes = retentionBytes;
+    this.syncMillis = syncMillis;
+
+    Files.createDirectories(directory);
+    recover();
+    if (segments.isEmpty()) {
+      segments.add(new Segment(directory, nextSeq));
+    }
+    Segment active = segments.get(segments.size() - 1);
+    logChannel = FileChannel.open(active.logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    logChannel.position(active.size);
+    indexChannel = FileChannel.open(active.indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    indexChannel.truncate(active.indexCount * 16L);
+    indexChannel.position(active.indexCount * 16L);
+
+    writerThread = new Thread(this::runWriter, "ChatLog");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Queues a message for writing. It never blocks: if the writer has fallen
+   * too far behind, the message is dropped and counted.
+   *
+   * @param message the message to persist
+   */
+  public void append(String message) {
+    if (closed || !queue.offer(message)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped because the writer queue was full,
+   * they were too long or they could not be written.
+   *
+   * @return the number of dropped messages
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Reads the last messages of the log. The sparse index is used to start
+   * reading close to the first message instead of at the start of a segment.
+   *
+   * @param count the number of messages to read
+   * @return the messages, oldest first
+   */
+  public List<String> tail(int count) {
+    List<Path> files = new ArrayList<>();
+    List<Long> ends = new ArrayList<>();
+    long startSeq;
+    long startPosition;
+
+    synchronized (this) {
+      startSeq = Math.max(segments.get(0).baseSeq, nextSeq - count);
+      int first = segments.size() - 1;
+      while (first > 0 && segments.get(first).baseSeq > startSeq) {
+        first--;
+      }
+      startPosition = segments.get(first).floorPosition(startSeq);
+      for (int i = first; i < segments.size(); i++) {
+        files.add(segments.get(i).logFile);
+        ends.add(segments.get(i).size);
+      }
+    }
+
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      long position = i == 0 ? startPosition : 0;
+      try (FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+        channel.position(position);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        while (position < ends.get(i)) {
+          int length = in.readInt();
+          in.readInt();
+          long seq = in.readLong();
+          in.readLong();
+          byte[] bytes = new byte[length];
+          in.readFully(bytes);
+          position += RECORD_HEADER + length;
+          if (seq >= startSeq) {
+            messages.add(new String(bytes, StandardCharsets.UTF_8));
+          }
+        }
+      } catch (NoSuchFileException e) {
+        // The segment was removed by retention while we were reading
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Writes out and fsyncs every queued message, then stops the writer thread.
+   */
+  public void close() {
+    closed = true;
+    try {
+      writerThread.join(syncMillis + 5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The runWriter method drains the queue in batches and fsyncs the active
+   * segment at most once per sync interval. A failed batch is counted as
+   * dropped and the active segment is reopened at its last good position, so
+   * one I/O error does not stop the writer.
+   */
+  private void runWriter() {
+    List<String> batch = new ArrayList<>();
+    List<byte[]> encoded = new ArrayList<>();
+    long lastSync = System.currentTimeMillis();
+    boolean dirty = false;
+    boolean failing = false;
+
+    try {
+      while (!closed || !queue.isEmpty()) {
+        String message = queue.poll(syncMillis, TimeUnit.MILLISECONDS);
+        if (message != null) {
+          batch.add(message);
+          queue.drainTo(batch);
+          for (String queued : batch) {
+            byte[] bytes = queued.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_MESSAGE_BYTES) {
+              dropped.incrementAndGet();
+            } else {
+              encoded.add(bytes);
+            }
+          }
+          long firstSeq = nextSeq;
+          try {
+            if (failing) {
+              reopen();
+            }
+            write(encoded);
+            failing = false;
+          } catch (IOException e) {
+            // Messages published before the error, at a segment roll, are kept
+            dropped.addAndGet(encoded.size() - (nextSeq - firstSeq));
+            failing = fail(e, failing);
+          }
+          batch.clear();
+          encoded.clear();
+          dirty = true;
+        }
+        if (dirty && !failing && System.currentTimeMillis() - lastSync >= syncMillis) {
+          try {
+            sync();
+            dirty = false;
+          } catch (IOException e) {
+            failing = fail(e, failing);
+          }
+          lastSync = System.currentTimeMillis();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      if (!failing) {
+        sync();
+      }
+      logChannel.close();
+      indexChannel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Reports an I/O error of the writer. Only the first error of a run of
+   * failures is printed, so a full disk does not flood the console.
+   *
+   * @return true, as the writer is now failing
+   */
+  private static boolean fail(IOException e, boolean failing) {
+    if (!failing) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  /**
+   * Reopens the active segment and cuts off anything written after its last
+   * published message, such as the half-written records of a failed batch.
+   *
+   * @throws IOException if the segment cannot be reopened
+   */
+  private void reopen() throws IOException {
+    Segment active;
+    synchronized (this) {
+      active = segments.get(segments.size() - 1);
+    }
+    logChannel.close();
+    indexChannel.close();
+    logChannel = FileChannel.open(active.logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    logChannel.truncate(active.size);
+    logChannel.position(active.size);
+    indexChannel = FileChannel.open(active.indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    indexChannel.truncate(active.indexCount * 16L);
+    indexChannel.position(active.indexCount * 16L);
+  }
+
+  /**
+   * Appends a batch of messages to the active segment, rolling to a new segment
+   * whenever the active one is full.
+   *
+   * @param batch the UTF-8 encoded messages to write
+   * @throws IOException if the segment cannot be written
+   */
+  private void write(List<byte[]> batch) throws IOException {
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(records);
+    ByteBuffer entry = ByteBuffer.allocate(16);
+    CRC32 crc = new CRC32();
+    Segment active = segments.get(segments.size() - 1);
+    long position = active.size;
+    long seq = nextSeq;
+    List<long[]> newEntries = new ArrayList<>();
+
+    for (byte[] bytes : batch) {
+      if (position > 0 && position + RECORD_HEADER + bytes.length > segmentBytes) {
+        flush(active, records, position, seq, newEntries);
+        records.reset();
+        newEntries.clear();
+        active = roll(seq);
+        position = 0;
+      }
+      if (position == 0 || position >= active.nextIndexPosition(newEntries)) {
+        entry.clear();
+        entry.putLong(seq).putLong(position);
+        entry.flip();
+        indexChannel.write(entry);
+        newEntries.add(new long[] { seq, position });
+      }
+
+      long time = System.currentTimeMillis();
+      out.writeInt(bytes.length);
+      out.writeInt(checksum(crc, seq, time, bytes));
+      out.writeLong(seq);
+      out.writeLong(time);
+      out.write(bytes);
+      position += RECORD_HEADER + bytes.length;
+      seq++;
+    }
+    flush(active, records, position, seq, newEntries);
+  }
+
+  /**
+   * Writes the encoded records to the active segment and publishes them to
+   * readers.
+   */
+  private void flush(Segment active, ByteArrayOutputStream records, long size, long seq, List<long[]> newEntries)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+    while (buffer.hasRemaining()) {
+      logChannel.write(buffer);
+    }
+    synchronized (this) {
+      for (long[] newEntry : newEntries) {
+        active.addIndex(newEntry[0], newEntry[1]);
+      }
+      active.size = size;
+      nextSeq = seq;
+    }
+  }
+
+  /**
+   * Closes the active segment and starts a new one, then deletes the oldest
+   * segments until the log fits in the retention size.
+   *
+   * @param baseSeq the sequence number of the first message in the new segment
+   * @return the new active segment
+   * @throws IOException if the segments cannot be written
+   */
+  private Segment roll(long baseSeq) throws IOException {
+    sync();
+    logChannel.close();
+    indexChannel.close();
+
+    Segment segment = new Segment(directory, baseSeq);
+    logChannel = FileChannel.open(segment.logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    indexChannel = FileChannel.open(segment.indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    List<Segment> expired = new ArrayList<>();
+    synchronized (this) {
+      segments.add(segment);
+      long total = 0;
+      for (Segment s : segments) {
+        total += s.size;
+      }
+      while (segments.size() > 1 && total > retentionBytes) {
+        Segment oldest = segments.remove(0);
+        total -= oldest.size;
+        expired.add(oldest);
+      }
+    }
+    for (Segment oldest : expired) {
+      try {
+        Files.deleteIfExists(oldest.logFile);
+        Files.deleteIfExists(oldest.indexFile);
+      } catch (IOException e) {
+        // Windows refuses while tail() has the file open. The new segment is
+        // fine, and the old one is picked up and expired again after a restart.
+        e.printStackTrace();
+      }
+    }
+    return segment;
+  }
+
+  /**
+   * Computes the checksum of a record over its sequence number, timestamp and
+   * message bytes.
+   */
+  private static int checksum(CRC32 crc, long seq, long time, byte[] bytes) {
+    crc.reset();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (seq >>> shift));
+    }
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (time >>> shift));
+    }
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private void sync() throws IOException {
+    logChannel.force(false);
+    indexChannel.force(false);
+  }
+
+  /**
+   * The recover method loads the existing segments and their indexes. The last
+   * segment is scanned from its last index entry to find the last complete
+   * message, and anything after it is truncated.
+   *
+   * @throws IOException if a segment cannot be read
+   */
+  private void recover() throws IOException {
+    List<Long> bases = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          bases.add(Long.parseLong(name.substring(0, name.length() - 4)));
+        } catch (NumberFormatException e) {
+          // Not one of our segments
+        }
+      }
+    }
+    Collections.sort(bases);
+
+    for (long base : bases) {
+      Segment segment = new Segment(directory, base);
+      segment.size = Files.size(segment.logFile);
+      segment.loadIndex();
+      segments.add(segment);
+    }
+    if (segments.isEmpty()) {
+      return;
+    }
+
+    Segment last = segments.get(segments.size() - 1);
+    long position = last.indexCount > 0 ? last.indexPositions[last.indexCount - 1] : 0;
+    long seq = last.indexCount > 0 ? last.indexSeqs[last.indexCount - 1] : last.baseSeq;
+    CRC32 crc = new CRC32();
+    try (FileChannel channel = FileChannel.open(last.logFile, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      channel.position(position);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      while (position + RECORD_HEADER <= last.size) {
+        int length = in.readInt();
+        int checksum = in.readInt();
+        long recordSeq = in.readLong();
+        long time = in.readLong();
+        if (length < 0 || length > MAX_MESSAGE_BYTES || position + RECORD_HEADER + length > last.size) {
+          break;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        if (checksum(crc, recordSeq, time, bytes) != checksum) {
+          break;
+        }
+        position += RECORD_HEADER + length;
+        seq = recordSeq + 1;
+      }
+      channel.truncate(position);
+    }
+    last.size = position;
+    last.dropIndexFrom(position);
+    nextSeq = seq;
+  }
+
+  /**
+   * The Segment class represents one log file and its sparse offset index.
+   */
+  private static class Segment {
+    private final long baseSeq;
+    private final Path logFile;
+    private final Path indexFile;
+    private long size;
+    private long[] indexSeqs = new long[16];
+    private long[] indexPositions = new long[16];
+    private int indexCount;
+
+    /**
+     * Constructor for the Segment class.
+     *
+     * @param directory the directory holding the segment files
+     * @param baseSeq   the sequence number of the first message in the segment
+     */
+    Segment(Path directory, long baseSeq) {
+      this.baseSeq = baseSeq;
+      String name = String.format("%020d", baseSeq);
+      logFile = directory.resolve(name + ".log");
+      indexFile = directory.resolve(name + ".idx");
+    }
+
+    /**
+     * Returns the position of the last indexed message at or before a sequence
+     * number.
+     *
+     * @param seq the sequence number
+     * @return the position to start reading from
+     */
+    long floorPosition(long seq) {
+      int low = 0;
+      int high = indexCount - 1;
+      long position = 0;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (indexSeqs[mid] <= seq) {
+          position = indexPositions[mid];
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return position;
+    }
+
+    /**
+     * Returns the position from which the next message gets an index entry.
+     *
+     * @param pending entries written but not yet published
+     * @return the position of the next index entry
+     */
+    long nextIndexPosition(List<long[]> pending) {
+      long last = pending.isEmpty() ? (indexCount > 0 ? indexPositions[indexCount - 1] : 0)
+          : pending.get(pending.size() - 1)[1];
+      return last + INDEX_INTERVAL;
+    }
+
+    void addIndex(long seq, long position) {
+      if (indexCount == indexSeqs.length) {
+        indexSeqs = Arrays.copyOf(indexSeqs, indexCount * 2);
+        indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+      }
+      indexSeqs[indexCount] = seq;
+      indexPositions[indexCount] = position;
+      indexCount++;
+    }
+
+    /**
+     * Loads the index file, ignoring a torn last entry and any entry that
+     * points past the end of the log file.
+     *
+     * @throws IOException if the index file cannot be read
+     */
+    void loadIndex() throws IOException {
+      if (!Files.exists(indexFile)) {
+        return;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+        long entries = Files.size(indexFile) / 16;
+        for (long i = 0; i < entries; i++) {
+          long seq = in.readLong();
+          long position = in.readLong();
+          if (position >= size) {
+            break;
+          }
+          addIndex(seq, position);
+        }
+      }
+    }
+
+    void dropIndexFrom(long position) {
+      while (indexCount > 0 && indexPositions[indexCount - 1] >= position) {
+        indexCount--;
+      }
+    }
+  }
+
+}
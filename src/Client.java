@@ -13,7 +13,6 @@ import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.HBox;
@@ -29,8 +28,12 @@ import javafx.stage.Stage;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 
@@ -47,8 +50,18 @@ public class Client extends Application {
 
     private final static String PACMAN_IMAGE = "pacmanA.png";
     private final static String MAZE_IMAGE = "background.jpg";
+    private final static String MAZE_FILE = "maze.bin";
     private final static int PACMAN_SIZE = 40;
     private final static int MOVEMENT_SPEED = 5;
+    private final static String SERVER_HOST = "localHost";
+    private final static int SERVER_PORT = Protocol.PORT;
+    private final static long RECONNECT_MIN_DELAY = 250;
+    private final static long RECONNECT_MAX_DELAY = 10_000;
+    private final static int KEPT_RECORDINGS = 20;
+    private final static int UP = 0;
+    private final static int DOWN = 1;
+    private final static int LEFT = 2;
+    private final static int RIGHT = 3;
 
     private ImageView pacmanView;
     private Pane gamePane;
@@ -58,15 +71,27 @@ public class Client extends Application {
     private boolean isMovingDown;
     private boolean isMovingLeft;
     private boolean isMovingRight;
-    private PixelReader mazPixelReader;
+    private CompiledMaze maze;
     private MediaPlayer mediaPlayer;
     private Socket clientSocket;
     private BufferedReader reader;
-    private BufferedWriter writer;
+    private volatile BufferedWriter writer;
     private TextArea chatTextArea;
     private TextField chatTextField;
     private Button sendButton;
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
+    private String resumeToken;
+    private long lastSeq;
+    private long banMillis;
+    private List<RandomCharacter> ghosts;
+    private Circle[] pacDots;
+    private volatile int tick;
+    private GameRecorder recorder;
+    private GameReplay replay;
+    private int replaySpeed = 1;
+    private boolean isReplayPaused;
+    private boolean isSeeking;
+    private byte[] initialState;
 
     /**
      * 
@@ -86,9 +111,45 @@ public class Client extends Application {
      */
     @Override
     public void start(Stage stage) {
+        Map<String, String> parameters = getParameters().getNamed();
+        try {
+            replaySpeed = Integer.parseInt(parameters.getOrDefault("speed", "1"));
+        } catch (NumberFormatException e) {
+            replaySpeed = 0;
+        }
+        if (replaySpeed < 1) {
+            System.err.println("--speed must be a whole number of at least 1, not " + parameters.get("speed"));
+            Platform.exit();
+            return;
+        }
+
         stage.setTitle("Pacman");
         showInstructions();
 
+        long[] ghostSeeds = new Random().longs(4).toArray();
+        if (parameters.containsKey("replay")) {
+            try {
+                replay = new GameReplay(Paths.get(parameters.get("replay")));
+                ghostSeeds = replay.getGhostSeeds();
+                stage.setTitle("Pacman - Replay");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (!"none".equals(parameters.get("record"))) {
+            String recordFile = parameters.getOrDefault("record",
+                    "recordings/session-" + System.currentTimeMillis() + ".rec");
+            try {
+                recorder = new GameRecorder(Paths.get(recordFile), ghostSeeds);
+                if (!parameters.containsKey("record")) {
+                    GameRecorder.deleteOldSessions(Paths.get("recordings"), Integer.parseInt(
+                            parameters.getOrDefault("keep-recordings", String.valueOf(KEPT_RECORDINGS))));
+                }
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+
+        maze = loadMaze();
         Image backgroundImage = new Image(MAZE_IMAGE);
         ImageView backgroundImageView = new ImageView(backgroundImage);
 
@@ -99,8 +160,8 @@ public class Client extends Application {
         pacmanView.setFitWidth(PACMAN_SIZE);
         pacmanView.setFitHeight(PACMAN_SIZE);
 
-        double initialX = 50;
-        double initialY = 615;
+        double initialX = maze.getSpawnX(0);
+        double initialY = maze.getSpawnY(0);
 
         pacmanView.setLayoutX(initialX);
         pacmanView.setLayoutY(initialY);
@@ -110,29 +171,34 @@ public class Client extends Application {
         chatPane = new Pane();
         Image characterImage = new Image("ghostA.png");
         RandomCharacter randomCharacter = new RandomCharacter(characterImage, backgroundImage.getWidth(),
-                backgroundImage.getHeight());
+                backgroundImage.getHeight(), ghostSeeds[0]);
 
         Image ghostBImage = new Image("ghostB.png");
         RandomCharacter randomCharacterB = new RandomCharacter(ghostBImage, backgroundImage.getWidth(),
-                backgroundImage.getHeight());
+                backgroundImage.getHeight(), ghostSeeds[1]);
         randomCharacterB.setFitWidth(PACMAN_SIZE);
         randomCharacterB.setFitHeight(PACMAN_SIZE);
         gamePane.getChildren().add(randomCharacterB);
         Image ghostCImage = new Image("ghostC.png");
         RandomCharacter randomCharacterC = new RandomCharacter(ghostCImage, backgroundImage.getWidth(),
-                backgroundImage.getHeight());
+                backgroundImage.getHeight(), ghostSeeds[2]);
         randomCharacterC.setFitHeight(PACMAN_SIZE);
         randomCharacterC.setFitWidth(PACMAN_SIZE);
         gamePane.getChildren().add(randomCharacterC);
         Image ghostDImage = new Image("ghostD.png");
         RandomCharacter randomCharacterD = new RandomCharacter(ghostDImage, backgroundImage.getWidth(),
-                backgroundImage.getHeight());
+                backgroundImage.getHeight(), ghostSeeds[3]);
         randomCharacterD.setFitHeight(PACMAN_SIZE);
         randomCharacterD.setFitWidth(PACMAN_SIZE);
         gamePane.getChildren().add(randomCharacterD);
         gamePane.getChildren().add(randomCharacter);
         randomCharacter.setFitHeight(PACMAN_SIZE);
         randomCharacter.setFitWidth(PACMAN_SIZE);
+        ghosts = Arrays.asList(randomCharacter, randomCharacterB, randomCharacterC, randomCharacterD);
+        for (RandomCharacter ghost : ghosts) {
+            ghost.setLayoutX(maze.getSpawnX(1));
+            ghost.setLayoutY(maze.getSpawnY(1));
+        }
         chatTextArea = new TextArea();
         chatTextArea.setEditable(false);
         chatTextField = new TextField();
@@ -154,8 +220,11 @@ public class Client extends Application {
 
         stage.show();
         root.setStyle("-fx-background-color: #BDB76B;");
-        mazPixelReader = backgroundImage.getPixelReader();
-        generatePacDots(backgroundImage);
+        generatePacDots();
+        if (replay != null) {
+            // Seeking before the first keyframe starts over from here
+            initialState = captureKeyframe();
+        }
 
         scene.addEventFilter(KeyEvent.KEY_PRESSED, this::handleArrowKeyPressed);
         scene.addEventFilter(KeyEvent.KEY_RELEASED, this::handleArrowKeyReleased);
@@ -175,11 +244,13 @@ public class Client extends Application {
             @Override
             public void handle(long now) {
                 if (now - lastUpdate >= 16_000_000) {
-                    movePacman();
-                    randomCharacter.moveRandomly();
-                    randomCharacterB.moveRandomly();
-                    randomCharacterC.moveRandomly();
-                    randomCharacterD.moveRandomly();
+                    if (replay == null) {
+                        runTick();
+                    } else if (!isReplayPaused) {
+                        for (int i = 0; i < replaySpeed && tick <= replay.getLastTick(); i++) {
+                            runTick();
+                        }
+                    }
                     lastUpdate = now;
                 }
             }
@@ -187,20 +258,14 @@ public class Client extends Application {
         };
         gameLoop.start();
 
-        // Create a client socket and set up input/output streams
-        try {
-            clientSocket = new Socket("localHost", 12345);
-            reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
-            // Start a separate thread for listening to incoming messages
-            Thread messageListener = new Thread(this::runMessageListener);
-            messageListener.setDaemon(true);
-            messageListener.start();
-
-            isConnected = true;
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (replay != null) {
+            return;
         }
+
+        // Start a separate thread for connecting to the server and listening to incoming messages
+        Thread messageListener = new Thread(this::runMessageListener);
+        messageListener.setDaemon(true);
+        messageListener.start();
     }
 
     /**
@@ -210,21 +275,25 @@ public class Client extends Application {
      */
     private void handleArrowKeyPressed(KeyEvent event) {
         KeyCode keyCode = event.getCode();
+        if (replay != null) {
+            handleReplayKeyPressed(keyCode);
+            return;
+        }
         switch (keyCode) {
             case UP:
-                isMovingUp = true;
+                setMoving(UP, true);
                 break;
 
             case DOWN:
-                isMovingDown = true;
+                setMoving(DOWN, true);
                 break;
 
             case LEFT:
-                isMovingLeft = true;
+                setMoving(LEFT, true);
                 break;
 
             case RIGHT:
-                isMovingRight = true;
+                setMoving(RIGHT, true);
                 break;
         }
     }
@@ -236,22 +305,245 @@ public class Client extends Application {
      */
     private void handleArrowKeyReleased(KeyEvent event) {
         KeyCode keyCode = event.getCode();
+        if (replay != null) {
+            return;
+        }
         switch (keyCode) {
             case UP:
-                isMovingUp = false;
+                setMoving(UP, false);
                 break;
 
             case DOWN:
-                isMovingDown = false;
+                setMoving(DOWN, false);
                 break;
 
             case LEFT:
-                isMovingLeft = false;
+                setMoving(LEFT, false);
                 break;
 
             case RIGHT:
-                isMovingRight = false;
+                setMoving(RIGHT, false);
+                break;
+        }
+    }
+
+    /**
+     * Starts or stops Pacman moving in a direction and records the change.
+     *
+     * @param direction The direction, one of UP, DOWN, LEFT and RIGHT
+     * @param moving    True to start moving, false to stop
+     */
+    private void setMoving(int direction, boolean moving) {
+        boolean wasMoving;
+        switch (direction) {
+            case UP:
+                wasMoving = isMovingUp;
+                isMovingUp = moving;
+                break;
+
+            case DOWN:
+                wasMoving = isMovingDown;
+                isMovingDown = moving;
+                break;
+
+            case LEFT:
+                wasMoving = isMovingLeft;
+                isMovingLeft = moving;
+                break;
+
+            default:
+                wasMoving = isMovingRight;
+                isMovingRight = moving;
+                break;
+        }
+        if (recorder != null && wasMoving != moving) {
+            recorder.recordInput(tick, direction, moving);
+        }
+    }
+
+    /**
+     * Handles the replay controls: space pauses, 1 to 4 set the speed to 1x, 2x,
+     * 4x or 8x, page up and page down seek back and forward, and home restarts.
+     *
+     * @param keyCode The key that was pressed
+     */
+    private void handleReplayKeyPressed(KeyCode keyCode) {
+        switch (keyCode) {
+            case SPACE:
+                isReplayPaused = !isReplayPaused;
+                break;
+
+            case DIGIT1:
+                replaySpeed = 1;
+                break;
+
+            case DIGIT2:
+                replaySpeed = 2;
+                break;
+
+            case DIGIT3:
+                replaySpeed = 4;
+                break;
+
+            case DIGIT4:
+                replaySpeed = 8;
+                break;
+
+            case PAGE_UP:
+                seekReplay(tick - GameRecorder.KEYFRAME_INTERVAL);
+                break;
+
+            case PAGE_DOWN:
+                seekReplay(tick + GameRecorder.KEYFRAME_INTERVAL);
                 break;
+
+            case HOME:
+                seekReplay(0);
+                break;
+        }
+    }
+
+    /**
+     * Advances the game by one tick. When recording, a keyframe is captured every
+     * KEYFRAME_INTERVAL ticks; when replaying, the recorded inputs and messages
+     * for the tick are applied first.
+     */
+    private void runTick() {
+        if (replay != null) {
+            applyReplayRecords();
+        } else if (recorder != null && tick % GameRecorder.KEYFRAME_INTERVAL == 0) {
+            recorder.recordKeyframe(tick, captureKeyframe());
+        }
+        movePacman();
+        for (RandomCharacter ghost : ghosts) {
+            ghost.moveRandomly();
+        }
+        tick++;
+    }
+
+    /**
+     * Applies every replay record up to and including the current tick.
+     */
+    private void applyReplayRecords() {
+        while (replay.peekTick() >= 0 && replay.peekTick() <= tick) {
+            GameRecorder.Record record = replay.next();
+            switch (record.type) {
+                case GameRecorder.INPUT:
+                    setMoving(record.payload[0], record.payload[1] != 0);
+                    break;
+
+                case GameRecorder.CHAT:
+                    // A seek rebuilds the chat once it has arrived
+                    if (!isSeeking) {
+                        chatTextArea.appendText(new String(record.payload, StandardCharsets.UTF_8) + " \n");
+                    }
+                    break;
+
+                case GameRecorder.KEYFRAME:
+                    restoreKeyframe(record.payload);
+                    break;
+
+                case GameRecorder.RESET:
+                    resetGame();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Jumps the replay to a tick by restoring the nearest earlier keyframe, or
+     * the initial state if there is none, and simulating the ticks after it.
+     * Sounds and chat are left out while simulating, and the chat is rebuilt
+     * from the recording once the target tick is reached.
+     *
+     * @param targetTick The tick to seek to
+     */
+    private void seekReplay(int targetTick) {
+        targetTick = Math.max(0, Math.min(targetTick, replay.getLastTick()));
+        isSeeking = true;
+        try {
+            if (replay.seek(targetTick)) {
+                GameRecorder.Record keyframe = replay.next();
+                restoreKeyframe(keyframe.payload);
+                tick = keyframe.tick;
+            } else {
+                restoreKeyframe(initialState);
+                tick = 0;
+            }
+            while (tick < targetTick) {
+                runTick();
+            }
+        } finally {
+            isSeeking = false;
+        }
+
+        chatTextArea.clear();
+        for (String message : replay.getChatBefore()) {
+            chatTextArea.appendText(message + " \n");
+        }
+    }
+
+    /**
+     * Captures the full game state for a recording keyframe.
+     *
+     * @return The encoded game state
+     */
+    private byte[] captureKeyframe() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeDouble(pacmanView.getLayoutX());
+            out.writeDouble(pacmanView.getLayoutY());
+            out.writeDouble(pacmanView.getRotate());
+            out.writeBoolean(isMovingUp);
+            out.writeBoolean(isMovingDown);
+            out.writeBoolean(isMovingLeft);
+            out.writeBoolean(isMovingRight);
+            out.writeInt(ghosts.size());
+            for (RandomCharacter ghost : ghosts) {
+                out.writeDouble(ghost.getLayoutX());
+                out.writeDouble(ghost.getLayoutY());
+                out.writeDouble(ghost.getDirection());
+            }
+            out.writeInt(pacDots.length);
+            for (Circle pacDot : pacDots) {
+                out.writeBoolean(gamePane.getChildren().contains(pacDot));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the game state from a recording keyframe.
+     *
+     * @param state The encoded game state
+     */
+    private void restoreKeyframe(byte[] state) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            pacmanView.setLayoutX(in.readDouble());
+            pacmanView.setLayoutY(in.readDouble());
+            pacmanView.setRotate(in.readDouble());
+            isMovingUp = in.readBoolean();
+            isMovingDown = in.readBoolean();
+            isMovingLeft = in.readBoolean();
+            isMovingRight = in.readBoolean();
+            int ghostCount = in.readInt();
+            for (int i = 0; i < ghostCount; i++) {
+                RandomCharacter ghost = ghosts.get(i);
+                ghost.setLayoutX(in.readDouble());
+                ghost.setLayoutY(in.readDouble());
+                ghost.setDirection(in.readDouble());
+            }
+            gamePane.getChildren().removeIf(node -> node instanceof Circle);
+            int dotCount = in.readInt();
+            for (int i = 0; i < dotCount; i++) {
+                if (in.readBoolean()) {
+                    gamePane.getChildren().add(pacDots[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -285,7 +577,9 @@ public class Client extends Application {
         }
 
         if (checkCollisionWithGhost(layoutX, layoutY, PACMAN_SIZE)) {
-            showGameOverAlert();
+            if (replay == null) {
+                showGameOverAlert();
+            }
             resetGame();
             return;
         }
@@ -358,6 +652,9 @@ public class Client extends Application {
             if (result.isPresent()) {
                 if (result.get() == playAgainButton) {
                     resetGame();
+                    if (recorder != null) {
+                        recorder.recordReset(tick);
+                    }
                 } else if (result.get() == exitButton) {
                     System.exit(0);
                 }
@@ -370,11 +667,25 @@ public class Client extends Application {
      * the maze.
      */
     private void resetGame() {
-        pacmanView.setLayoutX(50);
-        pacmanView.setLayoutY(600);
+        pacmanView.setLayoutX(maze.getSpawnX(0));
+        pacmanView.setLayoutY(maze.getSpawnY(0));
 
         gamePane.getChildren().removeIf(node -> node instanceof Circle);
-        generatePacDots(new Image(MAZE_IMAGE));
+        generatePacDots();
+    }
+
+    /**
+     * Loads the compiled maze, compiling it from the maze image only if the
+     * compiled file is missing or stale.
+     *
+     * @return The compiled maze
+     */
+    private CompiledMaze loadMaze() {
+        try {
+            return MazeCompiler.loadOrCompile(Paths.get(MAZE_FILE), getClass().getResourceAsStream("/" + MAZE_IMAGE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -386,15 +697,7 @@ public class Client extends Application {
      * @return True if collision with a wall occurs, false otherwise
      */
     private boolean checkCollision(double x, double y, double size) {
-        for (double i = x; i < x + size; i++) {
-            for (double j = y; j < y + size; j++) {
-                int pixelColor = mazPixelReader.getArgb((int) i, (int) j);
-                if (pixelColor == 0xFF000000) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return maze.collides(x, y, size);
     }
 
     /**
@@ -405,9 +708,7 @@ public class Client extends Application {
             String message = chatTextField.getText().trim();
             if (!message.isEmpty()) {
                 try {
-                    writer.write(message);
-                    writer.newLine();
-                    writer.flush();
+                    writeLine(message);
                     chatTextField.clear();
                 } catch (IOException e) {
 
@@ -420,17 +721,158 @@ public class Client extends Application {
 
     /**
      * Listens for incoming messages from the server and updates the chat text area.
+     * When the connection drops, it reconnects with exponential backoff and
+     * resumes the session from the last message received.
      */
     private void runMessageListener() {
+        Random jitter = new Random();
+        long delay = RECONNECT_MIN_DELAY;
         while (true) {
             try {
-                String message = reader.readLine();
-                if (message != null) {
-                    chatTextArea.appendText(message + " \n");
+                connect();
+                delay = RECONNECT_MIN_DELAY;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!handleServerLine(line)) {
+                        closeConnection();
+                        return;
+                    }
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                // The connection failed or dropped, reconnect below
+            }
+
+            if (isConnected) {
+                isConnected = false;
+                chatTextArea.appendText("Connection lost, reconnecting... \n");
+            }
+            closeConnection();
+            try {
+                // A banned client waits out the ban instead of retrying sooner
+                Thread.sleep(Math.max(banMillis, delay + jitter.nextInt((int) (delay / 2) + 1)));
+            } catch (InterruptedException e) {
+                return;
+            }
+            banMillis = 0;
+            delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
+        }
+    }
+
+    /**
+     * Connects to the server and resumes the session if there is one. If the
+     * server cannot resume it, a new session is started and the chat is cleared
+     * for the full history the server sends next. If this address is banned,
+     * the user is told how long for, and the ban is kept in banMillis for the
+     * reconnect delay.
+     *
+     * @throws IOException If the connection fails or the address is banned
+     */
+    private void connect() throws IOException {
+        clientSocket = new Socket(SERVER_HOST, SERVER_PORT);
+        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        synchronized (this) {
+            // Swapped under the writeLine lock so a chat message being sent on the
+            // old connection never writes to the new one mid-handshake
+            writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+            writeLine(resumeToken == null ? Protocol.HELLO : Protocol.RESUME + " " + resumeToken + " " + lastSeq);
+        }
+
+        String reply = reader.readLine();
+        if (reply == null) {
+            throw new EOFException("Connection closed during handshake");
+        }
+        String[] parts = reply.split(" ");
+        if (parts[0].equals(Protocol.WELCOME) && parts.length > 1) {
+            if (resumeToken != null) {
+                chatTextArea.clear();
             }
+            resumeToken = parts[1];
+            lastSeq = 0;
+        } else if (parts[0].equals(Protocol.KICKED)) {
+            banMillis = RECONNECT_MAX_DELAY;
+            if (parts.length > 1) {
+                try {
+                    banMillis = Math.max(0, Long.parseLong(parts[1]));
+                } catch (NumberFormatException e) {
+                    // Wait as long as for an unreachable server
+                }
+            }
+            chatTextArea.appendText("This address is banned for flooding the chat, retrying in "
+                    + (banMillis + 999) / 1000 + " s. \n");
+            throw new IOException("Banned by the server");
+        } else if (!parts[0].equals(Protocol.RESUMED)) {
+            throw new IOException("Unexpected handshake reply: " + reply);
+        }
+        isConnected = true;
+    }
+
+    /**
+     * Handles a line from the server. Messages already received before a
+     * reconnect are skipped.
+     *
+     * @param line The line from the server
+     * @return False if the server kicked the client, true otherwise
+     */
+    private boolean handleServerLine(String line) {
+        if (line.equals(Protocol.KICKED) || line.startsWith(Protocol.KICKED + " ")) {
+            isConnected = false;
+            chatTextArea.appendText("You were disconnected for flooding the chat. \n");
+            return false;
+        }
+        if (line.startsWith(Protocol.PING + " ")) {
+            try {
+                writeLine(Protocol.PONG + line.substring(Protocol.PING.length()) + " " + System.currentTimeMillis());
+            } catch (IOException e) {
+                closeConnection();
+            }
+            return true;
+        }
+        if (!line.startsWith(Protocol.MESSAGE + " ")) {
+            return true;
+        }
+        String[] parts = line.split(" ", 3);
+        long seq;
+        try {
+            seq = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        if (seq <= lastSeq) {
+            return true;
+        }
+        lastSeq = seq;
+        String message = parts.length > 2 ? parts[2] : "";
+        chatTextArea.appendText(message + " \n");
+        if (recorder != null) {
+            recorder.recordChat(tick, message);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a line to the server. It is synchronized because chat messages are
+     * sent from the FX thread while the listener thread writes the handshake
+     * and ping replies, and replaces the writer when it reconnects.
+     *
+     * @param line The line to send
+     * @throws IOException If the connection fails
+     */
+    private synchronized void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+        writer.flush();
+    }
+
+    /**
+     * Closes the connection to the server, if any.
+     */
+    private void closeConnection() {
+        try {
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -454,54 +896,19 @@ public class Client extends Application {
     }
 
     /**
-     * Generates Pac-Dots on the game pane based on the background image.
-     *
-     * @param backgroundImage The background image of the maze
+     * Generates Pac-Dots on the game pane at the positions stored in the compiled
+     * maze.
      */
-    private void generatePacDots(Image backgroundImage) {
-        double width = backgroundImage.getWidth();
-        double height = backgroundImage.getHeight();
-
-        double cellWidth = PACMAN_SIZE;
-        double cellHeight = PACMAN_SIZE;
-
+    private void generatePacDots() {
         double dotRadius = PACMAN_SIZE / 8;
 
-        int stepSize = 2;
-
-        for (double x = 0; x < width; x += cellWidth * stepSize) {
-            for (double y = 0; y < height; y += cellHeight * stepSize) {
-                boolean isValidPosition = checkValidPosition(x, y, cellWidth, cellHeight);
-                if (isValidPosition) {
-                    Circle pacDot = new Circle(x + cellWidth / 2, y + cellHeight / 2, dotRadius, Color.BLUE);
-                    gamePane.getChildren().add(pacDot);
-                }
-            }
+        pacDots = new Circle[maze.getDotCount()];
+        for (int i = 0; i < pacDots.length; i++) {
+            pacDots[i] = new Circle(maze.getDotX(i), maze.getDotY(i), dotRadius, Color.BLUE);
+            gamePane.getChildren().add(pacDots[i]);
         }
     }
 
-    /**
-     * Checks if the specified position is valid for placing a Pac-Dot.
-     *
-     * @param x          The x-coordinate of the position
-     * @param y          The y-coordinate of the position
-     * @param cellWidth  The width of a cell in the maze
-     * @param cellHeight The height of a cell in the maze
-     * @return True if the position is valid, false otherwise
-     */
-
-    private boolean checkValidPosition(double x, double y, double cellWidth, double cellHeight) {
-        for (double i = x; i < x + cellWidth; i++) {
-            for (double j = y; j < y + cellHeight; j++) {
-                int pixelColor = mazPixelReader.getArgb((int) i, (int) j);
-                if (pixelColor == 0xFF000000) {
-                    return false;
-                }
-            }
-        }
-        return true;
-    }
-
     /**
      * Checks for collision between Pacman and Pac-Dots, and handles the collision.
      */
@@ -518,12 +925,14 @@ public class Client extends Application {
                 if (Math.abs(pacmanCenterX - pacDotCenterX) < PACMAN_SIZE / 2
                         && Math.abs(pacmanCenterY - pacDotCenterY) < PACMAN_SIZE / 2) {
                     gamePane.getChildren().remove(pacDot);
-                    playPacDotSound();
+                    if (!isSeeking) {
+                        playPacDotSound();
+                    }
                     break;
                 }
             }
         }
-        if (gamePane.getChildren().stream().filter(node -> node instanceof Circle).count() == 0) {
+        if (replay == null && gamePane.getChildren().stream().filter(node -> node instanceof Circle).count() == 0) {
             Alert alert = new Alert(AlertType.INFORMATION);
             alert.setTitle("CONGRATULATIONS!");
             alert.setHeaderText(null);
@@ -561,11 +970,12 @@ public class Client extends Application {
          * @param image      The image representing the random character
          * @param mazeWidth  The width of the maze
          * @param mazeHeight The height of the maze
+         * @param seed       The seed of the character's random number generator
          */
 
-        public RandomCharacter(Image image, double mazeWidth, double mazeHeight) {
+        public RandomCharacter(Image image, double mazeWidth, double mazeHeight, long seed) {
             super(image);
-            random = new Random();
+            random = new Random(seed);
             this.mazeWidth = mazeWidth;
             this.mazeHeight = mazeHeight;
             direction = random.nextDouble() * 360;
@@ -593,6 +1003,26 @@ public class Client extends Application {
             setLayoutY(layoutY);
         }
 
+        /**
+         * Returns the direction the character is moving in.
+         *
+         * @return The direction in degrees
+         */
+
+        public double getDirection() {
+            return direction;
+        }
+
+        /**
+         * Sets the direction the character is moving in.
+         *
+         * @param direction The direction in degrees
+         */
+
+        public void setDirection(double direction) {
+            this.direction = direction;
+        }
+
         /**
          * Starts the random movement of the character by generating a random direction.
          */
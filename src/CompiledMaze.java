@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The CompiledMaze class represents a maze that has been compiled into a compact
+ * binary file by the MazeCompiler.
+ *
+ * The file holds a wall bitset (one bit per pixel), a tile graph, the Pac-Dot
+ * positions, the spawn points and a checksum. It is loaded with a memory-mapped
+ * FileChannel so the wall bitset is never copied onto the heap, and it does not
+ * depend on JavaFX so the server can load the same file.
+ *
+ * File layout (big-endian):
+ *
+ * <pre>
+ * int   magic            'PMAZ'
+ * int   version
+ * int   width, height    maze size in pixels
+ * int   tileSize         tile edge in pixels
+ * long  sourceChecksum   CRC32 of the image the maze was compiled from
+ * int   wallWords        number of longs in the wall bitset
+ * long[wallWords]        wall bits, row-major, bit (y * width + x)
+ * int   tileCols, tileRows
+ * byte[tileCols * tileRows] tile flags (TILE_WALKABLE | neighbour bits)
+ * int   dotCount,   dotCount * (int x, int y)   Pac-Dot centres
+ * int   spawnCount, spawnCount * (int x, int y) spawn points
+ * long  checksum         CRC32 of every byte above
+ * </pre>
+ */
+public class CompiledMaze {
+
+    public static final int MAGIC = 0x504D415A;
+    public static final int VERSION = 2;
+
+    /** The size of the fields up to and including the source checksum. */
+    private static final int HEADER_SIZE = 4 * 5 + Long.BYTES;
+
+    /** The tile edge in pixels, the same as the size of Pacman and the ghosts. */
+    public static final int DEFAULT_TILE_SIZE = 40;
+
+    public static final int TILE_UP = 1;
+    public static final int TILE_DOWN = 2;
+    public static final int TILE_LEFT = 4;
+    public static final int TILE_RIGHT = 8;
+    public static final int TILE_WALKABLE = 16;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final long sourceChecksum;
+    private final LongBuffer walls;
+    private final int tileCols;
+    private final int tileRows;
+    private final byte[] tiles;
+    private final int[] dots;
+    private final int[] spawns;
+
+    /**
+     * Constructs a CompiledMaze from already decoded sections.
+     *
+     * @param width          The width of the maze in pixels
+     * @param height         The height of the maze in pixels
+     * @param tileSize       The edge length of a tile in pixels
+     * @param sourceChecksum The checksum of the source image
+     * @param walls          The wall bitset
+     * @param tileCols       The number of tile columns
+     * @param tileRows       The number of tile rows
+     * @param tiles          The tile flags
+     * @param dots           The Pac-Dot centres as x, y pairs
+     * @param spawns         The spawn points as x, y pairs
+     */
+    public CompiledMaze(int width, int height, int tileSize, long sourceChecksum, LongBuffer walls,
+            int tileCols, int tileRows, byte[] tiles, int[] dots, int[] spawns) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.sourceChecksum = sourceChecksum;
+        this.walls = walls;
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        this.tiles = tiles;
+        this.dots = dots;
+        this.spawns = spawns;
+    }
+
+    /**
+     * Loads a compiled maze if the file exists and was compiled from the given
+     * source image.
+     *
+     * The header is checked with a plain read first, so a stale file is never
+     * mapped and can be replaced right away, which Windows refuses to do while a
+     * mapping is open.
+     *
+     * @param file           The compiled maze file
+     * @param sourceChecksum The checksum of the current source image
+     * @return The maze, or null if the file is missing, stale or corrupt
+     */
+    public static CompiledMaze load(Path file, long sourceChecksum) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (header.hasRemaining() && channel.read(header) != -1) {
+                    // Keep reading until the header is complete or the file ends
+                }
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getLong(20) != sourceChecksum) {
+                return null;
+            }
+            CompiledMaze maze = read(file);
+            return maze.getSourceChecksum() == sourceChecksum ? maze : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Memory-maps and validates a compiled maze file.
+     *
+     * @param file The compiled maze file
+     * @return The maze
+     * @throws IOException If the file cannot be read or is not a valid maze
+     */
+    public static CompiledMaze read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < 8 + Long.BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a compiled maze: " + file);
+        }
+        int bodyLength = buffer.limit() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyLength);
+        crc.update(body);
+        if (crc.getValue() != buffer.getLong(bodyLength)) {
+            throw new IOException("Checksum mismatch: " + file);
+        }
+
+        try {
+            buffer.position(8);
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int tileSize = buffer.getInt();
+            long sourceChecksum = buffer.getLong();
+            int wallWords = buffer.getInt();
+            if (wallWords != wallWords(width, height)) {
+                throw new IOException("Wall bitset size mismatch: " + file);
+            }
+            ByteBuffer wallBytes = buffer.slice();
+            wallBytes.limit(wallWords * Long.BYTES);
+            LongBuffer walls = wallBytes.asLongBuffer();
+            buffer.position(buffer.position() + wallWords * Long.BYTES);
+
+            int tileCols = buffer.getInt();
+            int tileRows = buffer.getInt();
+            byte[] tiles = new byte[tileCols * tileRows];
+            buffer.get(tiles);
+            int[] dots = readPoints(buffer);
+            int[] spawns = readPoints(buffer);
+
+            return new CompiledMaze(width, height, tileSize, sourceChecksum, walls, tileCols, tileRows, tiles,
+                    dots, spawns);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt compiled maze: " + file, e);
+        }
+    }
+
+    /**
+     * Writes the maze to a file. The file is written next to the target and then
+     * moved into place so readers never map a half-written maze.
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        int wallWords = wallWords(width, height);
+        int size = 8 + 4 * 3 + 8 + 4 + wallWords * Long.BYTES + 4 * 2 + tiles.length
+                + 4 + dots.length * 4 + 4 + spawns.length * 4 + Long.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(tileSize);
+        buffer.putLong(sourceChecksum);
+        buffer.putInt(wallWords);
+        for (int i = 0; i < wallWords; i++) {
+            buffer.putLong(walls.get(i));
+        }
+        buffer.putInt(tileCols);
+        buffer.putInt(tileRows);
+        buffer.put(tiles);
+        writePoints(buffer, dots);
+        writePoints(buffer, spawns);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Computes the checksum used to detect a stale compiled maze.
+     *
+     * @param in The source image stream, which is read to the end but not closed
+     * @return The CRC32 of the stream contents
+     * @throws IOException If the stream cannot be read
+     */
+    public static long checksum(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            crc.update(chunk, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the number of longs needed for the wall bitset of a maze.
+     *
+     * @param width  The width of the maze in pixels
+     * @param height The height of the maze in pixels
+     * @return The number of longs in the bitset
+     */
+    public static int wallWords(int width, int height) {
+        return (int) (((long) width * height + 63) >>> 6);
+    }
+
+    /**
+     * Checks if the pixel at the specified position is a wall. Positions outside
+     * the maze count as walls.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return True if the pixel is a wall, false otherwise
+     */
+    public boolean isWall(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return true;
+        }
+        long bit = (long) y * width + x;
+        return (walls.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Checks if any pixel inside the specified square is a wall.
+     *
+     * @param x    The x-coordinate of the square
+     * @param y    The y-coordinate of the square
+     * @param size The size of the square
+     * @return True if the square touches a wall, false otherwise
+     */
+    public boolean collides(double x, double y, double size) {
+        for (double i = x; i < x + size; i++) {
+            for (double j = y; j < y + size; j++) {
+                if (isWall((int) i, (int) j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the flags of a tile in the tile graph.
+     *
+     * @param col The tile column
+     * @param row The tile row
+     * @return The TILE_* flags of the tile, or 0 if it is outside the maze
+     */
+    public int getTile(int col, int row) {
+        if (col < 0 || row < 0 || col >= tileCols || row >= tileRows) {
+            return 0;
+        }
+        return tiles[row * tileCols + col];
+    }
+
+    /**
+     * Checks if a tile can be walked on.
+     *
+     * @param col The tile column
+     * @param row The tile row
+     * @return True if the tile holds no wall pixel, false otherwise
+     */
+    public boolean isWalkable(int col, int row) {
+        return (getTile(col, row) & TILE_WALKABLE) != 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTileCols() {
+        return tileCols;
+    }
+
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * Returns the number of Pac-Dots in the maze.
+     *
+     * @return The number of Pac-Dots
+     */
+    public int getDotCount() {
+        return dots.length / 2;
+    }
+
+    public int getDotX(int index) {
+        return dots[index * 2];
+    }
+
+    public int getDotY(int index) {
+        return dots[index * 2 + 1];
+    }
+
+    /**
+     * Returns the number of spawn points in the maze. Spawn point 0 is Pacman's.
+     *
+     * @return The number of spawn points
+     */
+    public int getSpawnCount() {
+        return spawns.length / 2;
+    }
+
+    public int getSpawnX(int index) {
+        return spawns[index * 2];
+    }
+
+    public int getSpawnY(int index) {
+        return spawns[index * 2 + 1];
+    }
+
+    private static int[] readPoints(ByteBuffer buffer) {
+        int[] points = new int[buffer.getInt() * 2];
+        buffer.asIntBuffer().get(points);
+        buffer.position(buffer.position() + points.length * 4);
+        return points;
+    }
+
+    private static void writePoints(ByteBuffer buffer, int[] points) {
+        buffer.putInt(points.length / 2);
+        for (int value : points) {
+            buffer.putInt(value);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The GameRecorder class records a game session to an append-only binary file
+ * that can be played back with GameReplay.
+ *
+ * Records are queued by the game and listener threads and written by a single
+ * background thread, so recording never blocks the game loop on disk I/O.
+ *
+ * File layout (big-endian):
+ *
+ * <pre>
+ * int  magic      'PREC'
+ * int  version
+ * int  ghostCount, ghostCount * long   ghost RNG seeds
+ * then records:  byte type, int tick, int length, byte[length] payload
+ * </pre>
+ */
+public class GameRecorder {
+
+    public static final int MAGIC = 0x50524543;
+    public static final int VERSION = 1;
+
+    public static final byte INPUT = 1;
+    public static final byte CHAT = 2;
+    public static final byte KEYFRAME = 3;
+    public static final byte RESET = 4;
+
+    /** The number of ticks between two keyframes. */
+    public static final int KEYFRAME_INTERVAL = 300;
+
+    private static final Record END = new Record((byte) 0, 0, new byte[0]);
+
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final DataOutputStream out;
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    /**
+     * Creates the recording file and starts the writer thread.
+     *
+     * @param file       The file to record to
+     * @param ghostSeeds The seeds of the ghosts' random number generators
+     * @throws IOException If the file cannot be created
+     */
+    public GameRecorder(Path file, long[] ghostSeeds) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(ghostSeeds.length);
+        for (long seed : ghostSeeds) {
+            out.writeLong(seed);
+        }
+
+        writerThread = new Thread(this::runWriter, "GameRecorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Deletes the oldest session recordings in a directory, keeping only the
+     * newest ones. Only files named session-*.rec are touched; their names hold
+     * the time they were started, so they sort oldest first.
+     *
+     * @param directory The directory of the session recordings
+     * @param keep      The number of recordings to keep
+     * @throws IOException If the directory cannot be listed
+     */
+    public static void deleteOldSessions(Path directory, int keep) throws IOException {
+        List<Path> sessions;
+        try (Stream<Path> files = Files.list(directory)) {
+            sessions = files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith("session-") && name.endsWith(".rec");
+            }).sorted().collect(Collectors.toList());
+        }
+        for (Path session : sessions.subList(0, Math.max(0, sessions.size() - Math.max(keep, 1)))) {
+            try {
+                Files.deleteIfExists(session);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records a change of one of the arrow keys.
+     *
+     * @param tick      The tick the input applies to
+     * @param direction The direction, 0 to 3 for up, down, left and right
+     * @param pressed   True if the key was pressed, false if it was released
+     */
+    public void recordInput(int tick, int direction, boolean pressed) {
+        record(new Record(INPUT, tick, new byte[] { (byte) direction, (byte) (pressed ? 1 : 0) }));
+    }
+
+    /**
+     * Records a chat message received from the server.
+     *
+     * @param tick    The tick the message arrived on
+     * @param message The message
+     */
+    public void recordChat(int tick, String message) {
+        record(new Record(CHAT, tick, message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Records the player restarting the game from the game over dialog.
+     *
+     * @param tick The tick the game was restarted on
+     */
+    public void recordReset(int tick) {
+        record(new Record(RESET, tick, new byte[0]));
+    }
+
+    /**
+     * Records a full game state that replays can seek to.
+     *
+     * @param tick  The tick the state was captured on
+     * @param state The encoded game state
+     */
+    public void recordKeyframe(int tick, byte[] state) {
+        record(new Record(KEYFRAME, tick, state));
+    }
+
+    private void record(Record record) {
+        if (!closed) {
+            queue.add(record);
+        }
+    }
+
+    /**
+     * Writes queued records in batches and flushes whenever the queue runs dry.
+     */
+    private void runWriter() {
+        List<Record> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Record record : batch) {
+                    if (record == END) {
+                        out.flush();
+                        return;
+                    }
+                    out.writeByte(record.type);
+                    out.writeInt(record.tick);
+                    out.writeInt(record.payload.length);
+                    out.write(record.payload);
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes out every queued record and closes the recording file.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(END);
+        try {
+            writerThread.join(5000);
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The Record class represents a single entry of a recording.
+     */
+    public static class Record {
+        public final byte type;
+        public final int tick;
+        public final byte[] payload;
+
+        /**
+         * Constructs a Record.
+         *
+         * @param type    The record type
+         * @param tick    The tick the record applies to
+         * @param payload The encoded record body
+         */
+        public Record(byte type, int tick, byte[] payload) {
+            this.type = type;
+            this.tick = tick;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GameReplay class reads a recording written by GameRecorder.
+ *
+ * The file is memory-mapped and indexed by keyframe when it is opened, so
+ * seeking to any tick only has to jump to the nearest earlier keyframe and read
+ * the few records after it. Chat records are indexed too, so the chat up to
+ * any point can be rebuilt without reading the records in between.
+ */
+public class GameReplay {
+
+    private final ByteBuffer buffer;
+    private final long[] ghostSeeds;
+    private final int firstRecord;
+    private final List<int[]> keyframes = new ArrayList<>();
+    private final List<Integer> chats = new ArrayList<>();
+    private int lastTick;
+
+    /**
+     * Opens and indexes a recording.
+     *
+     * @param file The recording file
+     * @throws IOException If the file cannot be read or is not a recording
+     */
+    public GameReplay(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != GameRecorder.MAGIC || buffer.getInt() != GameRecorder.VERSION) {
+                throw new IOException("Not a recording: " + file);
+            }
+            ghostSeeds = new long[buffer.getInt()];
+            for (int i = 0; i < ghostSeeds.length; i++) {
+                ghostSeeds[i] = buffer.getLong();
+            }
+            firstRecord = buffer.position();
+            index();
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt recording: " + file, e);
+        }
+        buffer.position(firstRecord);
+    }
+
+    /**
+     * Scans the record headers to find every keyframe and chat message and the
+     * last tick. A
+     * truncated record at the end, left by a crash, is ignored.
+     */
+    private void index() {
+        while (buffer.remaining() >= 9) {
+            int offset = buffer.position();
+            byte type = buffer.get();
+            int tick = buffer.getInt();
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.limit(offset);
+                break;
+            }
+            if (type == GameRecorder.KEYFRAME) {
+                keyframes.add(new int[] { tick, offset });
+            } else if (type == GameRecorder.CHAT) {
+                chats.add(offset);
+            }
+            lastTick = Math.max(lastTick, tick);
+            buffer.position(buffer.position() + length);
+        }
+        buffer.limit(buffer.position());
+    }
+
+    /**
+     * Returns the seeds of the ghosts' random number generators.
+     *
+     * @return The ghost seeds
+     */
+    public long[] getGhostSeeds() {
+        return ghostSeeds.clone();
+    }
+
+    /**
+     * Returns the last tick in the recording.
+     *
+     * @return The last tick
+     */
+    public int getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * Returns the tick of the next record without reading it.
+     *
+     * @return The tick of the next record, or -1 at the end of the recording
+     */
+    public int peekTick() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.getInt(buffer.position() + 1);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The next record, or null at the end of the recording
+     */
+    public GameRecorder.Record next() {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        byte type = buffer.get();
+        int tick = buffer.getInt();
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        return new GameRecorder.Record(type, tick, payload);
+    }
+
+    /**
+     * Returns the chat messages of the records before the next one, oldest
+     * first.
+     *
+     * @return The chat messages already read
+     */
+    public List<String> getChatBefore() {
+        List<String> messages = new ArrayList<>();
+        for (int offset : chats) {
+            if (offset >= buffer.position()) {
+                break;
+            }
+            byte[] payload = new byte[buffer.getInt(offset + 5)];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = buffer.get(offset + 9 + i);
+            }
+            messages.add(new String(payload, StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    /**
+     * Moves to the last keyframe at or before a tick. The next record read is
+     * that keyframe.
+     *
+     * @param tick The tick to seek to
+     * @return True if a keyframe was found, false if the replay was rewound to
+     *         the first record instead
+     */
+    public boolean seek(int tick) {
+        int low = 0;
+        int high = keyframes.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keyframes.get(mid)[0] <= tick) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        buffer.position(found < 0 ? firstRecord : keyframes.get(found)[1]);
+        return found >= 0;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * LagCompensator class evaluates hits against the world as a player saw it.
+ * Each player sees the world delayed by their own latency, so a player's input
+ * is checked against the entity positions at the time the player acted, taken
+ * from the position history and capped to a maximum rewind window.
+ */
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// LagCompensator class with the position history of every entity
+public class LagCompensator {
+  private final Map<String, PositionHistory> histories = new ConcurrentHashMap<>();
+  private final long maxRewindMillis;
+  private final int historySize;
+
+  /**
+   * Constructor for the LagCompensator class.
+   *
+   * @param maxRewindMillis the furthest back in time a check may be evaluated
+   * @param historySize     the number of positions kept per entity
+   */
+  public LagCompensator(long maxRewindMillis, int historySize) {
+    this.maxRewindMillis = maxRewindMillis;
+    this.historySize = historySize;
+  }
+
+  /**
+   * Returns the server clock used for all timestamps, in milliseconds.
+   *
+   * @return the current server time
+   */
+  public static long now() {
+    return System.nanoTime() / 1_000_000;
+  }
+
+  /**
+   * Records the position of an entity at the current server time.
+   *
+   * @param entityId the entity
+   * @param x        the x-coordinate
+   * @param y        the y-coordinate
+   */
+  public void recordPosition(String entityId, double x, double y) {
+    histories.computeIfAbsent(entityId, id -> new PositionHistory(historySize)).record(now(), x, y);
+  }
+
+  /**
+   * Removes the history of an entity that left the world.
+   *
+   * @param entityId the entity
+   */
+  public void removeEntity(String entityId) {
+    histories.remove(entityId);
+  }
+
+  /**
+   * Returns the IDs of every entity with a position history.
+   *
+   * @return the entity IDs
+   */
+  public Set<String> getEntityIds() {
+    return histories.keySet();
+  }
+
+  /**
+   * Looks up the position of an entity at a past time.
+   *
+   * @param entityId the entity
+   * @param time     the server time in milliseconds
+   * @param position receives the x- and y-coordinates
+   * @return true if the entity has a recorded position, false otherwise
+   */
+  public boolean positionAt(String entityId, long time, double[] position) {
+    PositionHistory history = histories.get(entityId);
+    return history != null && history.positionAt(time, position);
+  }
+
+  /**
+   * Returns the server time a player's view of the world corresponds to. With
+   * a client timestamp it is converted using the clock offset; without one it
+   * is estimated as half a round trip ago. Either way it is capped to the
+   * rewind window.
+   *
+   * @param rtt        the player's connection estimator
+   * @param clientTime the client time of the input, or a negative value if unknown
+   * @return the server time to evaluate the input at
+   */
+  public long viewTime(RttEstimator rtt, long clientTime) {
+    long now = now();
+    long time = clientTime >= 0 && rtt.hasSamples() ? rtt.toServerTime(clientTime) : now - rtt.getRtt() / 2;
+    return Math.max(now - maxRewindMillis, Math.min(now, time));
+  }
+
+  /**
+   * Checks if a square collides with any of the given entities as they were at
+   * a past time. The rule is the same as the client's ghost collision check.
+   *
+   * @param time      the server time to evaluate at, usually from viewTime
+   * @param x         the x-coordinate of the square
+   * @param y         the y-coordinate of the square
+   * @param size      the size of the square
+   * @param entityIds the entities to check against
+   * @return true if the square collides with an entity, false otherwise
+   */
+  public boolean checkCollision(long time, double x, double y, double size, Iterable<String> entityIds) {
+    double[] position = new double[2];
+    for (String entityId : entityIds) {
+      if (positionAt(entityId, time, position) && Math.abs(x - position[0]) < size
+          && Math.abs(y - position[1]) < size) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
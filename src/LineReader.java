@@ -0,0 +1,121 @@
+/**
+ * LineReader class reads lines of text with a maximum length.
+ * Unlike BufferedReader.readLine(), it never buffers more than the maximum
+ * length of a line, so a client sending a huge line cannot exhaust memory.
+ */
+
+import java.io.*;
+
+// LineReader class with the read buffer and the line being read
+public class LineReader implements Closeable {
+  private final Reader in;
+  private final int maxLength;
+  private final char[] buffer = new char[8192];
+  private final StringBuilder line = new StringBuilder();
+  private int position;
+  private int limit;
+  private boolean skipping;
+
+  /**
+   * Constructor for the LineReader class.
+   *
+   * @param in        the reader to read from
+   * @param maxLength the maximum number of characters in a line
+   */
+  public LineReader(Reader in, int maxLength) {
+    this.in = in;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Reads a line of text. A line ends with '\n', optionally preceded by '\r'.
+   * When a line is too long, the rest of it is skipped by the next call.
+   *
+   * @return the line without its terminator, or null at the end of the stream
+   * @throws LineTooLongException if the line is longer than the maximum length
+   * @throws IOException          if the stream cannot be read
+   */
+  public String readLine() throws IOException {
+    line.setLength(0);
+    while (true) {
+      if (position == limit) {
+        limit = Math.max(0, in.read(buffer, 0, buffer.length));
+        position = 0;
+        if (limit == 0) {
+          return skipping || line.length() == 0 ? null : finishLine();
+        }
+      }
+
+      int start = position;
+      while (position < limit && buffer[position] != '\n') {
+        position++;
+      }
+      boolean ended = position < limit;
+
+      if (skipping) {
+        if (ended) {
+          position++;
+          skipping = false;
+        }
+        continue;
+      }
+      if (isTooLong(start)) {
+        skipping = !ended;
+        if (ended) {
+          position++;
+        }
+        throw new LineTooLongException(maxLength);
+      }
+
+      line.append(buffer, start, position - start);
+      if (ended) {
+        position++;
+        return finishLine();
+      }
+    }
+  }
+
+  /**
+   * Checks if the line with the characters from start to position appended is
+   * too long. One character more than the maximum is allowed if it is a '\r',
+   * because it is stripped as part of a "\r\n" terminator.
+   */
+  private boolean isTooLong(int start) {
+    int length = line.length() + (position - start);
+    if (length <= maxLength) {
+      return false;
+    }
+    char last = position > start ? buffer[position - 1] : line.charAt(line.length() - 1);
+    return length > maxLength + 1 || last != '\r';
+  }
+
+  private String finishLine() {
+    int length = line.length();
+    if (length > 0 && line.charAt(length - 1) == '\r') {
+      line.setLength(length - 1);
+    }
+    return line.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * LineTooLongException is thrown when a line is longer than the maximum length.
+   */
+  public static class LineTooLongException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor for the LineTooLongException class.
+     *
+     * @param maxLength the maximum number of characters in a line
+     */
+    public LineTooLongException(int maxLength) {
+      super("Line longer than " + maxLength + " characters");
+    }
+  }
+
+}
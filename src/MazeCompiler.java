@@ -0,0 +1,153 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+/**
+ * The MazeCompiler class turns a maze image into a CompiledMaze file.
+ *
+ * It is run offline so the client and server can memory-map the result instead
+ * of decoding the image and scanning its pixels at startup. The client also uses
+ * it as a fallback when the compiled file is missing or stale.
+ *
+ * The image is decoded with JavaFX, like the client used to do before mazes were
+ * compiled. JPEG decoders disagree on which pixels come out pure black, so any
+ * other decoder would move walls and Pac-Dots.
+ *
+ * Usage: java MazeCompiler [image] [output]
+ */
+public class MazeCompiler {
+
+    public static final int WALL_COLOR = 0xFF000000;
+    public static final int TILE_SIZE = CompiledMaze.DEFAULT_TILE_SIZE;
+    public static final int DOT_STEP = 2;
+
+    /**
+     * Pacman's spawn point followed by the ghosts' spawn point. The ghosts start
+     * in the top left corner and wander from there.
+     */
+    public static final int[] DEFAULT_SPAWNS = { 50, 615, 0, 0 };
+
+    /**
+     * The main entry point for the MazeCompiler.
+     *
+     * @param args the image to compile and the file to write
+     */
+    public static void main(String[] args) {
+        Path image = Paths.get(args.length > 0 ? args[0] : "src/background.jpg");
+        Path output = Paths.get(args.length > 1 ? args[1] : "maze.bin");
+        try {
+            CompiledMaze maze = compile(Files.readAllBytes(image));
+            maze.write(output);
+            System.out.println("Compiled " + image + " to " + output + " (" + maze.getWidth() + "x"
+                    + maze.getHeight() + ", " + maze.getDotCount() + " dots)");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the compiled maze for an image, compiling and saving it first if the
+     * compiled file is missing or was built from a different image.
+     *
+     * @param compiled The compiled maze file
+     * @param image    The source image stream, which is closed by this method
+     * @return The maze
+     * @throws IOException If the image cannot be read or decoded
+     */
+    public static CompiledMaze loadOrCompile(Path compiled, InputStream image) throws IOException {
+        if (image == null) {
+            throw new FileNotFoundException("Maze image not found");
+        }
+        byte[] imageBytes;
+        try (InputStream in = image) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            imageBytes = out.toByteArray();
+        }
+        long sourceChecksum = CompiledMaze.checksum(new ByteArrayInputStream(imageBytes));
+        CompiledMaze maze = CompiledMaze.load(compiled, sourceChecksum);
+        if (maze != null) {
+            return maze;
+        }
+
+        maze = compile(imageBytes);
+        try {
+            maze.write(compiled);
+        } catch (IOException e) {
+            // The maze is still usable, it will just be compiled again next time
+            e.printStackTrace();
+        }
+        return maze;
+    }
+
+    /**
+     * Compiles an encoded maze image with the default tile size and spawn points.
+     *
+     * @param imageBytes The encoded image
+     * @return The compiled maze
+     * @throws IOException If the image cannot be decoded
+     */
+    public static CompiledMaze compile(byte[] imageBytes) throws IOException {
+        Image image = new Image(new ByteArrayInputStream(imageBytes));
+        if (image.isError()) {
+            throw new IOException("Unsupported maze image", image.getException());
+        }
+        long sourceChecksum = CompiledMaze.checksum(new ByteArrayInputStream(imageBytes));
+        return compile(wallBits(image), (int) image.getWidth(), (int) image.getHeight(), sourceChecksum,
+                DEFAULT_SPAWNS);
+    }
+
+    /**
+     * Builds the wall bitset of an image in bands of rows, see
+     * ParallelMazeAnalyzer. Only pure black pixels are walls.
+     *
+     * @param image The maze image
+     * @return The wall bitset, row-major
+     */
+    public static long[] wallBits(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        PixelReader pixels = image.getPixelReader();
+        return ParallelMazeAnalyzer.buildWalls(width, height, (bits, fromY, toY) -> {
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                pixels.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    if (row[x] == WALL_COLOR) {
+                        long bit = (long) y * width + x;
+                        bits[(int) (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the tile graph and Pac-Dot layout of a wall bitset with the default
+     * tile size. The analysis runs in parallel, see ParallelMazeAnalyzer.
+     *
+     * @param walls          The wall bitset, row-major
+     * @param width          The width of the maze in pixels
+     * @param height         The height of the maze in pixels
+     * @param sourceChecksum The checksum of the source the bitset came from
+     * @param spawns         The spawn points as x, y pairs
+     * @return The compiled maze
+     */
+    public static CompiledMaze compile(long[] walls, int width, int height, long sourceChecksum, int[] spawns) {
+        return ParallelMazeAnalyzer.analyze(LongBuffer.wrap(walls), width, height, TILE_SIZE, DOT_STEP,
+                sourceChecksum, spawns);
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The MazeGenerator class generates seeded mazes of any size and compiles them
+ * to CompiledMaze files, so large worlds can be reproduced for benchmarks and
+ * bigger matches.
+ *
+ * The maze is laid out on the tile grid. Every tile with odd coordinates is a
+ * cell, and a randomized depth-first search carves corridors between cells. A
+ * fraction of the remaining inner walls is then knocked out so the maze has
+ * loops, like a Pac-Man maze, instead of dead ends only. The same size, tile
+ * size and seed always produce the same maze.
+ *
+ * Usage: java MazeGenerator width height seed [output] [tileSize]
+ */
+public class MazeGenerator {
+
+    /** The chance of knocking out an inner wall after the maze is carved. */
+    public static final double LOOP_CHANCE = 0.1;
+
+    /** Every corridor tile gets a Pac-Dot, cells sit on odd tiles only. */
+    public static final int DOT_STEP = 1;
+
+    /**
+     * The main entry point for the MazeGenerator.
+     *
+     * @param args the width and height in pixels, the seed, the file to write and
+     *             the tile size
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java MazeGenerator width height seed [output] [tileSize]");
+            return;
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        long seed = Long.parseLong(args[2]);
+        Path output = Paths.get(args.length > 3 ? args[3] : "maze-" + width + "x" + height + "-" + seed + ".bin");
+        int tileSize = args.length > 4 ? Integer.parseInt(args[4]) : CompiledMaze.DEFAULT_TILE_SIZE;
+
+        try {
+            long start = System.nanoTime();
+            long[] walls = generate(width, height, tileSize, seed);
+            long generated = System.nanoTime();
+            CompiledMaze maze = ParallelMazeAnalyzer.analyze(LongBuffer.wrap(walls), width, height, tileSize,
+                    DOT_STEP, checksum(width, height, tileSize, seed), spawns(width, height, tileSize));
+            long analyzed = System.nanoTime();
+            maze.write(output);
+
+            System.out.println("Generated " + output + " (" + width + "x" + height + ", "
+                    + maze.getTileCols() + "x" + maze.getTileRows() + " tiles, " + maze.getDotCount()
+                    + " dots) in " + (generated - start) / 1000000 + " ms, analyzed in "
+                    + (analyzed - generated) / 1000000 + " ms");
+        } catch (IllegalArgumentException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Generates the wall bitset of a maze. The corridors are carved serially,
+     * the walls are drawn in parallel bands of rows.
+     *
+     * @param width    The width of the maze in pixels
+     * @param height   The height of the maze in pixels
+     * @param tileSize The edge length of a tile in pixels, which is also the
+     *                 width of corridors and walls
+     * @param seed     The seed of the maze
+     * @return The wall bitset, row-major
+     * @throws IllegalArgumentException If the maze does not fit at least one cell
+     */
+    public static long[] generate(int width, int height, int tileSize, long seed) {
+        if (tileSize <= 0 || width < 3 * tileSize || height < 3 * tileSize) {
+            throw new IllegalArgumentException("A maze needs at least 3x3 tiles of " + tileSize + " pixels");
+        }
+        int tileCols = width / tileSize;
+        int tileRows = height / tileSize;
+        boolean[] open = carve(tileCols, tileRows, new Random(seed));
+
+        int usedWidth = tileCols * tileSize;
+        return ParallelMazeAnalyzer.buildWalls(width, height, (walls, fromY, toY) -> {
+            for (int y = fromY; y < toY; y++) {
+                int row = y / tileSize;
+                // Pixels past the last full tile are outside the tile grid, so fill them in
+                if (row >= tileRows) {
+                    setBits(walls, (long) y * width, width);
+                    continue;
+                }
+                int col = 0;
+                while (col < tileCols) {
+                    int end = col;
+                    while (end < tileCols && open[row * tileCols + end] == open[row * tileCols + col]) {
+                        end++;
+                    }
+                    if (!open[row * tileCols + col]) {
+                        setBits(walls, (long) y * width + (long) col * tileSize, (end - col) * tileSize);
+                    }
+                    col = end;
+                }
+                setBits(walls, (long) y * width + usedWidth, width - usedWidth);
+            }
+        });
+    }
+
+    /**
+     * Carves the corridors of the maze with an iterative depth-first search.
+     *
+     * @param tileCols The number of tile columns
+     * @param tileRows The number of tile rows
+     * @param random   The random number generator of the maze
+     * @return The open tiles, row-major
+     */
+    private static boolean[] carve(int tileCols, int tileRows, Random random) {
+        int cellCols = (tileCols - 1) / 2;
+        int cellRows = (tileRows - 1) / 2;
+        boolean[] open = new boolean[tileCols * tileRows];
+        boolean[] visited = new boolean[cellCols * cellRows];
+        int[] stack = new int[cellCols * cellRows];
+        int[] neighbours = new int[4];
+
+        int size = 0;
+        stack[size++] = 0;
+        visited[0] = true;
+        open[tileCols + 1] = true;
+        while (size > 0) {
+            int cell = stack[size - 1];
+            int cellCol = cell % cellCols;
+            int cellRow = cell / cellCols;
+
+            int count = 0;
+            if (cellRow > 0 && !visited[cell - cellCols]) {
+                neighbours[count++] = cell - cellCols;
+            }
+            if (cellRow < cellRows - 1 && !visited[cell + cellCols]) {
+                neighbours[count++] = cell + cellCols;
+            }
+            if (cellCol > 0 && !visited[cell - 1]) {
+                neighbours[count++] = cell - 1;
+            }
+            if (cellCol < cellCols - 1 && !visited[cell + 1]) {
+                neighbours[count++] = cell + 1;
+            }
+            if (count == 0) {
+                size--;
+                continue;
+            }
+
+            int next = neighbours[random.nextInt(count)];
+            int nextCol = 2 * (next % cellCols) + 1;
+            int nextRow = 2 * (next / cellCols) + 1;
+            open[nextRow * tileCols + nextCol] = true;
+            // The tile between two cells is halfway between their tile coordinates
+            open[(nextRow + 2 * cellRow + 1) / 2 * tileCols + (nextCol + 2 * cellCol + 1) / 2] = true;
+            visited[next] = true;
+            stack[size++] = next;
+        }
+
+        for (int row = 1; row < 2 * cellRows; row++) {
+            for (int col = 1; col < 2 * cellCols; col++) {
+                // Inner walls sit between two cells, horizontally or vertically
+                boolean between = row % 2 == 1 ? col % 2 == 0 : col % 2 == 1;
+                if (between && !open[row * tileCols + col] && random.nextDouble() < LOOP_CHANCE) {
+                    open[row * tileCols + col] = true;
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Sets a range of bits in a bitset, a word at a time.
+     */
+    private static void setBits(long[] bits, long start, int length) {
+        long end = start + length;
+        while (start < end) {
+            int bit = (int) (start & 63);
+            int count = (int) Math.min(64 - bit, end - start);
+            bits[(int) (start >>> 6)] |= (count == 64 ? -1L : (1L << count) - 1) << bit;
+            start += count;
+        }
+    }
+
+    /**
+     * Returns the spawn points of a generated maze: Pacman in the top left cell
+     * and the ghosts in the cell closest to the centre.
+     *
+     * @param width    The width of the maze in pixels
+     * @param height   The height of the maze in pixels
+     * @param tileSize The edge length of a tile in pixels
+     * @return The spawn points as x, y pairs
+     */
+    public static int[] spawns(int width, int height, int tileSize) {
+        int centreCol = ((width / tileSize - 1) / 2 - 1) / 2 * 2 + 1;
+        int centreRow = ((height / tileSize - 1) / 2 - 1) / 2 * 2 + 1;
+        return new int[] { tileSize, tileSize, centreCol * tileSize, centreRow * tileSize };
+    }
+
+    /**
+     * Computes the source checksum of a generated maze from its parameters, so a
+     * compiled file can be checked against the maze it should contain.
+     *
+     * @param width    The width of the maze in pixels
+     * @param height   The height of the maze in pixels
+     * @param tileSize The edge length of a tile in pixels
+     * @param seed     The seed of the maze
+     * @return The checksum
+     */
+    public static long checksum(int width, int height, int tileSize, long seed) {
+        ByteBuffer parameters = ByteBuffer.allocate(4 * 3 + 8 + 8);
+        parameters.putInt(width).putInt(height).putInt(tileSize).putLong(seed).putDouble(LOOP_CHANCE);
+        try {
+            return CompiledMaze.checksum(new ByteArrayInputStream(parameters.array()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
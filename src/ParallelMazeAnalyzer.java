@@ -0,0 +1,268 @@
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ParallelMazeAnalyzer class builds the wall bitset of a maze and its tile
+ * graph and Pac-Dot layout on a fork-join pool.
+ *
+ * The wall bitset is filled in bands of pixel rows. Bands start and end on a
+ * word of the bitset, so two bands never write the same word.
+ *
+ * The maze is split into bands of tile rows that are analyzed in parallel. The
+ * first pass marks walkable tiles and collects the Pac-Dots of each band, the
+ * second links every walkable tile to its walkable neighbours. Each task only
+ * writes the tiles of its own band, and the bitset is only read, so no locking
+ * is needed.
+ */
+public class ParallelMazeAnalyzer {
+
+    private static final int ROWS_PER_TASK = 4;
+    private static final int PIXEL_ROWS_PER_TASK = 64;
+
+    /**
+     * Sets the wall bits of a band of pixel rows.
+     */
+    public interface WallBand {
+
+        /**
+         * Sets the wall bits of the rows from fromY to toY. Only bits of these
+         * rows may be set.
+         *
+         * @param bits  The wall bitset, row-major
+         * @param fromY The first row of the band
+         * @param toY   The row after the last row of the band
+         */
+        void fill(long[] bits, int fromY, int toY);
+    }
+
+    /**
+     * Builds a wall bitset by filling bands of pixel rows in parallel.
+     *
+     * @param width  The width of the maze in pixels
+     * @param height The height of the maze in pixels
+     * @param band   Sets the wall bits of a band
+     * @return The wall bitset, row-major
+     */
+    public static long[] buildWalls(int width, int height, WallBand band) {
+        long[] bits = new long[CompiledMaze.wallWords(width, height)];
+        // A band boundary must fall on a word, which happens every rowStep rows
+        int rowStep = 64 >>> Math.min(6, Integer.numberOfTrailingZeros(width));
+        ForkJoinPool.commonPool().invoke(new WallTask(bits, band, rowStep, 0, height));
+        return bits;
+    }
+
+    /**
+     * Analyzes a wall bitset.
+     *
+     * A tile is walkable when it holds no wall pixel. A Pac-Dot is placed at the
+     * centre of every walkable tile on every dotStep-th row and column.
+     *
+     * @param walls          The wall bitset, row-major
+     * @param width          The width of the maze in pixels
+     * @param height         The height of the maze in pixels
+     * @param tileSize       The edge length of a tile in pixels
+     * @param dotStep        The number of tiles between two Pac-Dots
+     * @param sourceChecksum The checksum of the source the bitset came from
+     * @param spawns         The spawn points as x, y pairs
+     * @return The compiled maze
+     */
+    public static CompiledMaze analyze(LongBuffer walls, int width, int height, int tileSize, int dotStep,
+            long sourceChecksum, int[] spawns) {
+        int tileCols = width / tileSize;
+        int tileRows = height / tileSize;
+        byte[] tiles = new byte[tileCols * tileRows];
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[] dots = pool.invoke(new WalkableTask(walls, width, tileSize, dotStep, tileCols, tiles, 0, tileRows));
+        pool.invoke(new LinkTask(tileCols, tileRows, tiles, 0, tileRows));
+
+        return new CompiledMaze(width, height, tileSize, sourceChecksum, walls, tileCols, tileRows, tiles, dots,
+                spawns.clone());
+    }
+
+    /**
+     * Checks if any bit in a range of the bitset is set, a word at a time.
+     *
+     * @param bits   The bitset
+     * @param start  The first bit of the range
+     * @param length The number of bits in the range
+     * @return True if any bit in the range is set, false otherwise
+     */
+    static boolean anySet(LongBuffer bits, long start, int length) {
+        long end = start + length;
+        while (start < end) {
+            int bit = (int) (start & 63);
+            int count = (int) Math.min(64 - bit, end - start);
+            long mask = (count == 64 ? -1L : (1L << count) - 1) << bit;
+            if ((bits.get((int) (start >>> 6)) & mask) != 0) {
+                return true;
+            }
+            start += count;
+        }
+        return false;
+    }
+
+    /**
+     * Fills the wall bits of a band of pixel rows.
+     */
+    private static class WallTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] bits;
+        private final WallBand band;
+        private final int rowStep;
+        private final int fromY;
+        private final int toY;
+
+        WallTask(long[] bits, WallBand band, int rowStep, int fromY, int toY) {
+            this.bits = bits;
+            this.band = band;
+            this.rowStep = rowStep;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            int middle = fromY + (toY - fromY) / 2 / rowStep * rowStep;
+            if (toY - fromY > PIXEL_ROWS_PER_TASK && middle > fromY) {
+                invokeAll(new WallTask(bits, band, rowStep, fromY, middle),
+                        new WallTask(bits, band, rowStep, middle, toY));
+                return;
+            }
+            band.fill(bits, fromY, toY);
+        }
+    }
+
+    /**
+     * Marks the walkable tiles of a band of tile rows and returns its Pac-Dots.
+     */
+    private static class WalkableTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final LongBuffer walls;
+        private final int width;
+        private final int tileSize;
+        private final int dotStep;
+        private final int tileCols;
+        private final byte[] tiles;
+        private final int fromRow;
+        private final int toRow;
+
+        WalkableTask(LongBuffer walls, int width, int tileSize, int dotStep, int tileCols, byte[] tiles,
+                int fromRow, int toRow) {
+            this.walls = walls;
+            this.width = width;
+            this.tileSize = tileSize;
+            this.dotStep = dotStep;
+            this.tileCols = tileCols;
+            this.tiles = tiles;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (toRow - fromRow > ROWS_PER_TASK) {
+                int middle = (fromRow + toRow) >>> 1;
+                WalkableTask top = new WalkableTask(walls, width, tileSize, dotStep, tileCols, tiles, fromRow,
+                        middle);
+                WalkableTask bottom = new WalkableTask(walls, width, tileSize, dotStep, tileCols, tiles, middle,
+                        toRow);
+                bottom.fork();
+                int[] topDots = top.compute();
+                int[] bottomDots = bottom.join();
+                int[] dots = Arrays.copyOf(topDots, topDots.length + bottomDots.length);
+                System.arraycopy(bottomDots, 0, dots, topDots.length, bottomDots.length);
+                return dots;
+            }
+
+            int[] dots = new int[16];
+            int dotCount = 0;
+            for (int row = fromRow; row < toRow; row++) {
+                for (int col = 0; col < tileCols; col++) {
+                    if (!isWalkable(col, row)) {
+                        continue;
+                    }
+                    tiles[row * tileCols + col] = CompiledMaze.TILE_WALKABLE;
+                    if (col % dotStep == 0 && row % dotStep == 0) {
+                        if (dotCount + 2 > dots.length) {
+                            dots = Arrays.copyOf(dots, dots.length * 2);
+                        }
+                        dots[dotCount++] = col * tileSize + tileSize / 2;
+                        dots[dotCount++] = row * tileSize + tileSize / 2;
+                    }
+                }
+            }
+            return Arrays.copyOf(dots, dotCount);
+        }
+
+        private boolean isWalkable(int col, int row) {
+            long x = (long) col * tileSize;
+            long y = (long) row * tileSize;
+            for (long j = y; j < y + tileSize; j++) {
+                if (anySet(walls, j * width + x, tileSize)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sets the neighbour bits of the walkable tiles in a band of tile rows.
+     */
+    private static class LinkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int tileCols;
+        private final int tileRows;
+        private final byte[] tiles;
+        private final int fromRow;
+        private final int toRow;
+
+        LinkTask(int tileCols, int tileRows, byte[] tiles, int fromRow, int toRow) {
+            this.tileCols = tileCols;
+            this.tileRows = tileRows;
+            this.tiles = tiles;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow > ROWS_PER_TASK) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new LinkTask(tileCols, tileRows, tiles, fromRow, middle),
+                        new LinkTask(tileCols, tileRows, tiles, middle, toRow));
+                return;
+            }
+
+            for (int row = fromRow; row < toRow; row++) {
+                for (int col = 0; col < tileCols; col++) {
+                    int index = row * tileCols + col;
+                    if ((tiles[index] & CompiledMaze.TILE_WALKABLE) == 0) {
+                        continue;
+                    }
+                    int links = 0;
+                    if (row > 0 && (tiles[index - tileCols] & CompiledMaze.TILE_WALKABLE) != 0) {
+                        links |= CompiledMaze.TILE_UP;
+                    }
+                    if (row < tileRows - 1 && (tiles[index + tileCols] & CompiledMaze.TILE_WALKABLE) != 0) {
+                        links |= CompiledMaze.TILE_DOWN;
+                    }
+                    if (col > 0 && (tiles[index - 1] & CompiledMaze.TILE_WALKABLE) != 0) {
+                        links |= CompiledMaze.TILE_LEFT;
+                    }
+                    if (col < tileCols - 1 && (tiles[index + 1] & CompiledMaze.TILE_WALKABLE) != 0) {
+                        links |= CompiledMaze.TILE_RIGHT;
+                    }
+                    tiles[index] |= links;
+                }
+            }
+        }
+    }
+}
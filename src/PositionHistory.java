@@ -0,0 +1,88 @@
+/**
+ * PositionHistory class keeps the recent positions of an entity in a ring
+ * buffer, so the server can look up where the entity was at a past time.
+ */
+
+// PositionHistory class with the ring buffer of timestamped positions
+public class PositionHistory {
+  private final long[] times;
+  private final double[] xs;
+  private final double[] ys;
+  private int next;
+  private int count;
+
+  /**
+   * Constructor for the PositionHistory class.
+   *
+   * @param capacity the number of positions kept
+   */
+  public PositionHistory(int capacity) {
+    times = new long[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+  }
+
+  /**
+   * Records the position of the entity. Times must not go backwards.
+   *
+   * @param time the server time in milliseconds
+   * @param x    the x-coordinate
+   * @param y    the y-coordinate
+   */
+  public synchronized void record(long time, double x, double y) {
+    times[next] = time;
+    xs[next] = x;
+    ys[next] = y;
+    next = (next + 1) % times.length;
+    count = Math.min(count + 1, times.length);
+  }
+
+  /**
+   * Looks up the position of the entity at a time, interpolating between the
+   * two recorded positions around it. Times outside the history are clamped to
+   * the oldest or newest position.
+   *
+   * @param time     the server time in milliseconds
+   * @param position receives the x- and y-coordinates
+   * @return true if a position was found, false if nothing was recorded yet
+   */
+  public synchronized boolean positionAt(long time, double[] position) {
+    if (count == 0) {
+      return false;
+    }
+    int newest = (next - 1 + times.length) % times.length;
+    int oldest = (next - count + times.length) % times.length;
+    if (time >= times[newest]) {
+      return copy(newest, position);
+    }
+    if (time <= times[oldest]) {
+      return copy(oldest, position);
+    }
+
+    // Binary search over the logical order of the ring
+    int low = 0;
+    int high = count - 1;
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (times[(oldest + mid) % times.length] <= time) {
+        low = mid;
+      } else {
+        high = mid;
+      }
+    }
+    int before = (oldest + low) % times.length;
+    int after = (oldest + high) % times.length;
+    long span = times[after] - times[before];
+    double t = span == 0 ? 0 : (double) (time - times[before]) / span;
+    position[0] = xs[before] + (xs[after] - xs[before]) * t;
+    position[1] = ys[before] + (ys[after] - ys[before]) * t;
+    return true;
+  }
+
+  private boolean copy(int index, double[] position) {
+    position[0] = xs[index];
+    position[1] = ys[index];
+    return true;
+  }
+
+}
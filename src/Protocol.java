@@ -0,0 +1,54 @@
+/**
+ * The Protocol class holds the line commands exchanged by the client and the
+ * server.
+ *
+ * A client opens a connection with HELLO, or with RESUME followed by its resume
+ * token and the last sequence number it received. The server answers with
+ * WELCOME and a new token, or with RESUMED when the session was resumed, and then
+ * sends every message as MSG followed by its sequence number. The server also
+ * sends PING with its clock, which the client answers with PONG, the server
+ * clock and its own clock. Any other line from the client is a chat message.
+ * A client that floods the chat is sent KICKED with the number of milliseconds
+ * its address is banned for, and so is any connection from a banned address,
+ * as the reply to HELLO or RESUME.
+ *
+ * A spectator opens a connection with WATCH instead and only receives
+ * snapshots: a SNAP line with the snapshot tick and server time, an E line per
+ * entity with its ID and position, a C line per recent chat message, and END.
+ * A C line holds the sequence number of the message and its text. Sequence
+ * numbers count up across snapshots, so a spectator can tell which messages it
+ * has already seen even when two messages have the same text.
+ */
+public final class Protocol {
+
+    /** The port the server listens on. */
+    public static final int PORT = 12345;
+
+    public static final String HELLO = "HELLO";
+    public static final String RESUME = "RESUME";
+    public static final String WELCOME = "WELCOME";
+    public static final String RESUMED = "RESUMED";
+    public static final String MESSAGE = "MSG";
+    public static final String KICKED = "KICKED";
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    public static final String WATCH = "WATCH";
+    public static final String SNAPSHOT = "SNAP";
+    public static final String ENTITY = "E";
+    public static final String CHAT = "C";
+    public static final String END = "END";
+
+    private Protocol() {
+    }
+
+    /**
+     * Builds a sequenced message line.
+     *
+     * @param seq  The sequence number of the message
+     * @param text The message
+     * @return The line to send
+     */
+    public static String message(long seq, String text) {
+        return MESSAGE + " " + seq + " " + text;
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * RateLimiter class protects the server against flooding clients.
+ * Each client has token buckets for messages and characters, and the room has
+ * shared buckets of its own. Messages over the limit are dropped, delayed or
+ * get the client kicked, depending on the configured action. A message that
+ * only exceeds the room limit is never a reason to kick its sender.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// RateLimiter class with the configuration, room buckets and counters
+public class RateLimiter {
+
+  /**
+   * Action is what happens to a message over the limit.
+   */
+  public enum Action {
+    DROP, DELAY, KICK
+  }
+
+  /**
+   * Decision is the outcome of admitting a message.
+   */
+  public enum Decision {
+    ACCEPT, DROP, KICK
+  }
+
+  private final double messagesPerSecond;
+  private final double messageBurst;
+  private final double charsPerSecond;
+  private final double charBurst;
+  private final int maxLineLength;
+  private final Action action;
+  private final long maxDelayNanos;
+  private final TokenBucket roomMessages;
+  private final TokenBucket roomChars;
+
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong delayed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong oversized = new AtomicLong();
+  private final AtomicLong kicked = new AtomicLong();
+
+  /**
+   * Constructor for the RateLimiter class.
+   *
+   * @param messagesPerSecond     the sustained message rate of a client
+   * @param messageBurst          the message burst of a client
+   * @param charsPerSecond        the sustained character rate of a client
+   * @param charBurst             the character burst of a client
+   * @param roomMessagesPerSecond the sustained message rate of the room
+   * @param roomCharsPerSecond    the sustained character rate of the room
+   * @param maxLineLength         the maximum number of characters in a line
+   * @param action                what happens to a message over the limit
+   * @param maxDelayMillis        the longest a message is delayed before it is dropped
+   */
+  public RateLimiter(double messagesPerSecond, double messageBurst, double charsPerSecond, double charBurst,
+      double roomMessagesPerSecond, double roomCharsPerSecond, int maxLineLength, Action action,
+      long maxDelayMillis) {
+    this.messagesPerSecond = messagesPerSecond;
+    this.messageBurst = messageBurst;
+    this.charsPerSecond = charsPerSecond;
+    this.charBurst = charBurst;
+    this.maxLineLength = maxLineLength;
+    this.action = action;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    this.roomMessages = new TokenBucket(roomMessagesPerSecond * 2, roomMessagesPerSecond);
+    this.roomChars = new TokenBucket(roomCharsPerSecond * 2, roomCharsPerSecond);
+  }
+
+  /**
+   * Creates a RateLimiter configured from the ratelimit.* system properties.
+   *
+   * @return the rate limiter
+   */
+  public static RateLimiter fromSystemProperties() {
+    return new RateLimiter(
+        Integer.getInteger("ratelimit.messagesPerSecond", 5),
+        Integer.getInteger("ratelimit.messageBurst", 10),
+        Integer.getInteger("ratelimit.charsPerSecond", 4096),
+        Integer.getInteger("ratelimit.charBurst", 16384),
+        Integer.getInteger("ratelimit.roomMessagesPerSecond", 200),
+        Integer.getInteger("ratelimit.roomCharsPerSecond", 256 * 1024),
+        Integer.getInteger("ratelimit.maxLineLength", 1024),
+        Action.valueOf(System.getProperty("ratelimit.action", "DELAY").toUpperCase()),
+        Long.getLong("ratelimit.maxDelayMillis", 2000));
+  }
+
+  /**
+   * Returns the maximum number of characters in a line.
+   *
+   * @return the maximum line length
+   */
+  public int getMaxLineLength() {
+    return maxLineLength;
+  }
+
+  /**
+   * Creates the buckets of a new client.
+   *
+   * @return the client's limits
+   */
+  public ClientLimit newClient() {
+    return new ClientLimit(new TokenBucket(messageBurst, messagesPerSecond), new TokenBucket(charBurst,
+        charsPerSecond));
+  }
+
+  /**
+   * Admits a message from a client. With the DELAY action the calling thread
+   * sleeps until the message fits, which stops reading from that client only.
+   *
+   * @param client the client's limits
+   * @param chars  the length of the message
+   * @return whether to broadcast the message, drop it or kick the client
+   */
+  public Decision admit(ClientLimit client, int chars) {
+    TokenBucket[] buckets = { client.messages, client.chars, roomMessages, roomChars };
+    double[] amounts = { 1, chars, 1, chars };
+
+    if (action == Action.DELAY) {
+      long wait = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        wait = Math.max(wait, buckets[i].reserve(amounts[i]));
+      }
+      if (wait > maxDelayNanos) {
+        refund(buckets, amounts, buckets.length);
+        dropped.incrementAndGet();
+        return Decision.DROP;
+      }
+      if (wait > 0) {
+        delayed.incrementAndGet();
+        try {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          dropped.incrementAndGet();
+          return Decision.DROP;
+        }
+      }
+      accepted.incrementAndGet();
+      return Decision.ACCEPT;
+    }
+
+    for (int i = 0; i < buckets.length; i++) {
+      if (!buckets[i].tryConsume(amounts[i])) {
+        refund(buckets, amounts, i);
+        // Only the client's own buckets can get it kicked. The room buckets are
+        // shared, so one flooder draining them must not get others kicked.
+        if (i >= 2) {
+          dropped.incrementAndGet();
+          return Decision.DROP;
+        }
+        return reject();
+      }
+    }
+    accepted.incrementAndGet();
+    return Decision.ACCEPT;
+  }
+
+  /**
+   * Admits a protocol reply, such as a PONG, against the client's message
+   * bucket. It is never delayed, because a delay would skew the round-trip time
+   * the reply measures, and it never gets the client kicked.
+   *
+   * @param client the client's limits
+   * @return true if the reply fits, false if it should be ignored
+   */
+  public boolean admitControl(ClientLimit client) {
+    if (client.messages.tryConsume(1)) {
+      accepted.incrementAndGet();
+      return true;
+    }
+    dropped.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Handles a line that was longer than the maximum length. It is never
+   * delayed: it is dropped, or the client is kicked with the KICK action.
+   *
+   * @return whether to drop the line or kick the client
+   */
+  public Decision admitOversized() {
+    oversized.incrementAndGet();
+    return reject();
+  }
+
+  private Decision reject() {
+    if (action == Action.KICK) {
+      kicked.incrementAndGet();
+      return Decision.KICK;
+    }
+    dropped.incrementAndGet();
+    return Decision.DROP;
+  }
+
+  private static void refund(TokenBucket[] buckets, double[] amounts, int count) {
+    for (int i = 0; i < count; i++) {
+      buckets[i].refund(amounts[i]);
+    }
+  }
+
+  /**
+   * Returns the counters of the rate limiter.
+   *
+   * @return the counters as text
+   */
+  @Override
+  public String toString() {
+    return "accepted=" + accepted + " delayed=" + delayed + " dropped=" + dropped + " oversized=" + oversized
+        + " kicked=" + kicked;
+  }
+
+  /**
+   * ClientLimit class holds the token buckets of one client.
+   */
+  public static class ClientLimit {
+    private final TokenBucket messages;
+    private final TokenBucket chars;
+
+    private ClientLimit(TokenBucket messages, TokenBucket chars) {
+      this.messages = messages;
+      this.chars = chars;
+    }
+  }
+
+}
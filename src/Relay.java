@@ -0,0 +1,128 @@
+/**
+ * Relay class fans out the spectator stream of a room.
+ * It subscribes once to a server (or to another relay) as a spectator and serves
+ * the same snapshots to its own spectators, so the server only writes each
+ * snapshot once per relay.
+ *
+ * Usage: java Relay [upstreamHost] [upstreamPort] [listenPort]
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+// Relay class with the upstream address and the shared feed
+public class Relay {
+  private static final long RECONNECT_MIN_DELAY = 250;
+  private static final long RECONNECT_MAX_DELAY = 10_000;
+
+  private final String upstreamHost;
+  private final int upstreamPort;
+  private final int listenPort;
+  private final SpectatorFeed feed = new SpectatorFeed();
+  private long published;
+
+  /**
+   * Constructor for the Relay class.
+   *
+   * @param upstreamHost the host of the server or relay to subscribe to
+   * @param upstreamPort the port of the server or relay to subscribe to
+   * @param listenPort   the port spectators connect to
+   */
+  public Relay(String upstreamHost, int upstreamPort, int listenPort) {
+    this.upstreamHost = upstreamHost;
+    this.upstreamPort = upstreamPort;
+    this.listenPort = listenPort;
+  }
+
+  /**
+   * The main method of the Relay class.
+   *
+   * @param args the upstream host and port and the port to listen on
+   */
+  public static void main(String[] args) {
+    String host = args.length > 0 ? args[0] : "localhost";
+    int upstreamPort = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.PORT;
+    int listenPort = args.length > 2 ? Integer.parseInt(args[2]) : Protocol.PORT + 1;
+    new Relay(host, upstreamPort, listenPort).run();
+  }
+
+  /**
+   * The run method starts the upstream subscription and accepts spectators.
+   */
+  public void run() {
+    Thread upstreamThread = new Thread(this::runUpstream, "Upstream");
+    upstreamThread.setDaemon(true);
+    upstreamThread.start();
+
+    try (ServerSocket serverSocket = new ServerSocket(listenPort)) {
+      System.out.println("Relay for " + upstreamHost + ":" + upstreamPort + " started on PORT " + listenPort);
+      while (true) {
+        Socket spectator = serverSocket.accept();
+        Thread spectatorThread = new Thread(() -> serveSpectator(spectator));
+        spectatorThread.setDaemon(true);
+        spectatorThread.start();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * The runUpstream method reads snapshots from upstream and republishes their
+   * bytes unchanged. It reconnects with exponential backoff.
+   */
+  private void runUpstream() {
+    long delay = RECONNECT_MIN_DELAY;
+    while (true) {
+      try (Socket socket = new Socket(upstreamHost, upstreamPort)) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+            StandardCharsets.UTF_8));
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        writer.write(Protocol.WATCH + "\n");
+        writer.flush();
+        delay = RECONNECT_MIN_DELAY;
+
+        StringBuilder snapshot = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith(Protocol.SNAPSHOT + " ")) {
+            snapshot = new StringBuilder();
+          }
+          if (snapshot == null) {
+            continue;
+          }
+          snapshot.append(line).append('\n');
+          if (line.equals(Protocol.END)) {
+            // Our own tick keeps increasing even if the upstream restarts
+            feed.publish(++published, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+            snapshot = null;
+          }
+        }
+      } catch (IOException e) {
+        System.out.println("Upstream lost: " + e.getMessage());
+      }
+
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        return;
+      }
+      delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
+    }
+  }
+
+  /**
+   * The serveSpectator method streams snapshots to one spectator.
+   *
+   * @param spectator the spectator socket
+   */
+  private void serveSpectator(Socket spectator) {
+    try (Socket socket = spectator) {
+      feed.serve(socket.getOutputStream());
+    } catch (IOException e) {
+      // The spectator disconnected
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * RttEstimator class estimates the round-trip time and clock offset of a
+ * connection from ping/pong exchanges.
+ * The round-trip time is smoothed like TCP does. The clock offset is taken from
+ * the recent sample with the lowest round-trip time, which is the least skewed
+ * by queuing delays.
+ */
+
+// RttEstimator class with the smoothed RTT and the recent offset samples
+public class RttEstimator {
+  private static final int OFFSET_SAMPLES = 8;
+
+  private final long[] sampleRtts = new long[OFFSET_SAMPLES];
+  private final long[] sampleOffsets = new long[OFFSET_SAMPLES];
+  private int sampleCount;
+  private double smoothedRtt = -1;
+  private double rttVariance;
+  private long offset;
+
+  /**
+   * Adds a ping/pong sample.
+   *
+   * @param sentAt     the server time the ping was sent, in milliseconds
+   * @param clientTime the client time the pong was sent, in milliseconds
+   * @param receivedAt the server time the pong was received, in milliseconds
+   */
+  public synchronized void addSample(long sentAt, long clientTime, long receivedAt) {
+    long rtt = Math.max(0, receivedAt - sentAt);
+    if (smoothedRtt < 0) {
+      smoothedRtt = rtt;
+      rttVariance = rtt / 2.0;
+    } else {
+      rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - rtt);
+      smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+    }
+
+    // The client clock was read roughly half way through the round trip
+    int slot = sampleCount++ % OFFSET_SAMPLES;
+    sampleRtts[slot] = rtt;
+    sampleOffsets[slot] = clientTime - (sentAt + rtt / 2);
+    int best = 0;
+    for (int i = 1; i < Math.min(sampleCount, OFFSET_SAMPLES); i++) {
+      if (sampleRtts[i] < sampleRtts[best]) {
+        best = i;
+      }
+    }
+    offset = sampleOffsets[best];
+  }
+
+  /**
+   * Returns whether at least one sample was added.
+   *
+   * @return true if the estimates are based on samples, false otherwise
+   */
+  public synchronized boolean hasSamples() {
+    return sampleCount > 0;
+  }
+
+  /**
+   * Returns the smoothed round-trip time.
+   *
+   * @return the round-trip time in milliseconds, 0 before the first sample
+   */
+  public synchronized long getRtt() {
+    return smoothedRtt < 0 ? 0 : Math.round(smoothedRtt);
+  }
+
+  /**
+   * Returns the variation of the round-trip time.
+   *
+   * @return the round-trip time variation in milliseconds
+   */
+  public synchronized long getRttVariance() {
+    return Math.round(rttVariance);
+  }
+
+  /**
+   * Converts a client timestamp to server time.
+   *
+   * @param clientTime the client time in milliseconds
+   * @return the server time in milliseconds
+   */
+  public synchronized long toServerTime(long clientTime) {
+    return clientTime - offset;
+  }
+
+}
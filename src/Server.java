@@ -13,14 +13,43 @@ import javafx.stage.*;
 import javafx.geometry.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Server class with global attributes
 public class Server extends Application {
   private ServerSocket serverSocket;
-  private List<ClientHandler> clients = new ArrayList<>();
+  private Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private Map<InetAddress, Long> bannedUntil = new ConcurrentHashMap<>();
+  private AtomicInteger nextClientId = new AtomicInteger();
+  private SecureRandom tokenRandom = new SecureRandom();
+  private ScheduledExecutorService scheduler;
+  private SpectatorFeed spectatorFeed = new SpectatorFeed();
+  private Deque<Map.Entry<Long, String>> recentMessages = new ArrayDeque<>();
+  private long lastChatSeq;
+  private long spectatorTick;
   private TextArea chatTextArea;
-  public static final int SERVERPORT = 12345;
+  private Label statusLabel;
+  private ChatLog chatLog;
+  private RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
+  private LagCompensator lagCompensator = new LagCompensator(Long.getLong("lagcomp.maxRewindMillis", 500),
+      Integer.getInteger("lagcomp.historySize", 128));
+  public static final int HISTORY_SIZE = Integer.getInteger("chatlog.history", 50);
+  public static final int REPLAY_BUFFER_SIZE = Integer.getInteger("session.replayBuffer", 256);
+  public static final long RESUME_GRACE_MILLIS = Long.getLong("session.graceMillis", 30000);
+  public static final int OUTBOX_SIZE = Integer.getInteger("session.outboxSize", 1024);
+  // Compared by identity, so no message can be mistaken for it
+  private static final String END_OF_OUTBOX = new String("");
+  public static final long KICK_BAN_MILLIS = Long.getLong("ratelimit.banMillis", 10000);
+  public static final long PING_INTERVAL_MILLIS = Long.getLong("ping.intervalMillis", 2000);
+  public static final int MAX_OUTSTANDING_PINGS = 4;
+  public static final long SPECTATOR_INTERVAL_MILLIS = Long.getLong("spectator.intervalMillis", 250);
+  public static final long SPECTATOR_DELAY_MILLIS = Long.getLong("spectator.delayMillis", 1000);
+  public static final int SPECTATOR_CHAT_LINES = Integer.getInteger("spectator.chatLines", 20);
 
   /**
    * The main method of the GameServer class.
@@ -47,31 +76,62 @@ public class Server extends Application {
     VBox root = new VBox();
     root.setSpacing(10);
     root.setPadding(new Insets(10));
-    root.getChildren().add(chatTextArea);
+    statusLabel = new Label();
+    root.getChildren().addAll(chatTextArea, statusLabel);
 
     Scene scene = new Scene(root, 300, 300);
     stage.setScene(scene);
     stage.show();
 
+    try {
+      chatLog = new ChatLog(Paths.get(System.getProperty("chatlog.dir", "chatlog")),
+          Long.getLong("chatlog.segmentBytes", 1 << 20), Long.getLong("chatlog.retentionBytes", 16L << 20),
+          Long.getLong("chatlog.syncMillis", 1000));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "Scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this::expireSessions, 1, 1, TimeUnit.SECONDS);
+    scheduler.scheduleAtFixedRate(this::updateStatus, 0, 1, TimeUnit.SECONDS);
+    scheduler.scheduleAtFixedRate(this::pingClients, PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+    scheduler.scheduleAtFixedRate(this::publishSnapshot, SPECTATOR_INTERVAL_MILLIS, SPECTATOR_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+
     Thread serverThread = new Thread(this::runServer);
     serverThread.setDaemon(true);
     serverThread.start();
   }
 
+  /**
+   * The stop method of the JavaFX application.
+   * It writes out the chat log before the server exits.
+   */
+  @Override
+  public void stop() throws Exception {
+    if (chatLog != null) {
+      chatLog.close();
+    }
+  }
+
   /**
    * The runServer method starts the server and accepts client connections.
    * It creates a ClientHandler thread for each client.
    */
   private void runServer() {
     try {
-      serverSocket = new ServerSocket(SERVERPORT);
-      Platform.runLater(() -> chatTextArea.appendText("Server started on PORT " + SERVERPORT + "\n"));
+      serverSocket = new ServerSocket(Protocol.PORT);
+      Platform.runLater(() -> chatTextArea.appendText("Server started on PORT " + Protocol.PORT + "\n"));
 
       while (true) {
         Socket clientSocket = serverSocket.accept();
 
         ClientHandler clientHandler = new ClientHandler(clientSocket);
-        clients.add(clientHandler);
         clientHandler.start();
       }
     } catch (IOException e) {
@@ -80,27 +140,160 @@ public class Server extends Application {
   }
 
   /**
-   * The broadcastMessage method broadcasts a message to all connected clients.
+   * The broadcastMessage method broadcasts a message to all client sessions.
+   * Sessions whose client is reconnecting keep the message for when it resumes.
+   * The message is also queued for the chat log, which never blocks the caller.
    *
    * @param message the message to broadcast
    */
   private void broadcastMessage(String message) {
     Platform.runLater(() -> chatTextArea.appendText(message + " \n"));
+    if (chatLog != null) {
+      chatLog.append(message);
+    }
+    synchronized (recentMessages) {
+      recentMessages.addLast(new AbstractMap.SimpleImmutableEntry<>(LagCompensator.now(), message));
+      lastChatSeq++;
+      // Keep enough messages to fill a delayed snapshot
+      while (recentMessages.size() > SPECTATOR_CHAT_LINES * 4) {
+        recentMessages.removeFirst();
+      }
+    }
 
-    for (ClientHandler client : clients) {
-      client.sendMessage(message);
+    for (Session session : sessions.values()) {
+      session.deliver(message);
     }
   }
 
   /**
-   * The removeClient method removes a client from the list of connected clients.
+   * The removeSession method removes a session from the map of sessions.
    * It also broadcasts a message to inform other clients about the disconnection.
    *
-   * @param client the client to remove
+   * @param session the session to remove
+   */
+  private void removeSession(Session session) {
+    if (sessions.remove(session.getToken(), session)) {
+      broadcastMessage(session.getClientID() + "has disconnected!");
+    }
+  }
+
+  /**
+   * The updateStatus method shows how many messages the chat log has dropped,
+   * so a full queue or a failing disk does not go unnoticed.
+   */
+  private void updateStatus() {
+    String status = chatLog == null ? "Chat log disabled" : "Chat log dropped: " + chatLog.getDroppedCount();
+    Platform.runLater(() -> statusLabel.setText(status));
+  }
+
+  /**
+   * The expireSessions method removes the sessions whose client has not
+   * reconnected within the grace period, and lifts the bans that ran out.
+   */
+  private void expireSessions() {
+    long now = System.currentTimeMillis();
+    bannedUntil.values().removeIf(until -> until <= now);
+    for (Session session : sessions.values()) {
+      if (session.expire(now, RESUME_GRACE_MILLIS)) {
+        removeSession(session);
+      }
+    }
+  }
+
+  /**
+   * The pingClients method sends every connected client the server clock, so
+   * their round-trip time and clock offset can be estimated from the replies.
+   */
+  private void pingClients() {
+    long now = LagCompensator.now();
+    for (Session session : sessions.values()) {
+      session.ping(now);
+    }
+  }
+
+  /**
+   * The publishSnapshot method encodes the room as it was SPECTATOR_DELAY_MILLIS
+   * ago and publishes it to the spectator feed. The snapshot is encoded once
+   * and shared by every spectator, and not at all when nobody watches.
+   */
+  private void publishSnapshot() {
+    if (spectatorFeed.getSpectatorCount() == 0) {
+      return;
+    }
+    long viewTime = LagCompensator.now() - SPECTATOR_DELAY_MILLIS;
+    long tick = ++spectatorTick;
+    StringBuilder snapshot = new StringBuilder();
+    snapshot.append(Protocol.SNAPSHOT).append(' ').append(tick).append(' ').append(viewTime).append('\n');
+
+    double[] position = new double[2];
+    for (String entityId : lagCompensator.getEntityIds()) {
+      if (lagCompensator.positionAt(entityId, viewTime, position)) {
+        snapshot.append(Protocol.ENTITY).append(' ').append(entityId).append(' ').append(position[0]).append(' ')
+            .append(position[1]).append('\n');
+      }
+    }
+
+    // Messages are only removed from the front, so the last one has lastChatSeq
+    List<String> chat = new ArrayList<>();
+    long firstSeq;
+    synchronized (recentMessages) {
+      firstSeq = lastChatSeq - recentMessages.size() + 1;
+      for (Map.Entry<Long, String> entry : recentMessages) {
+        if (entry.getKey() <= viewTime) {
+          chat.add(entry.getValue());
+        }
+      }
+    }
+    for (int i = Math.max(0, chat.size() - SPECTATOR_CHAT_LINES); i < chat.size(); i++) {
+      snapshot.append(Protocol.CHAT).append(' ').append(firstSeq + i).append(' ').append(chat.get(i)).append('\n');
+    }
+    snapshot.append(Protocol.END).append('\n');
+
+    spectatorFeed.publish(tick, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The checkCollisionWithGhost method checks a player's position against the
+   * ghosts as that player saw them, rewinding their recorded positions by the
+   * player's latency.
+   *
+   * @param player     the client handler of the player
+   * @param clientTime the client time of the player's input, or -1 if unknown
+   * @param x          the x-coordinate of the player
+   * @param y          the y-coordinate of the player
+   * @param size       the size of the player
+   * @param ghostIds   the entity IDs of the ghosts
+   * @return true if the player collides with a ghost, false otherwise
    */
-  private void removeClient(ClientHandler client) {
-    clients.remove(client);
-    broadcastMessage(client.getClientID() + "has disconnected!");
+  public boolean checkCollisionWithGhost(ClientHandler player, long clientTime, double x, double y, double size,
+      Iterable<String> ghostIds) {
+    long time = lagCompensator.viewTime(player.getRttEstimator(), clientTime);
+    return lagCompensator.checkCollision(time, x, y, size, ghostIds);
+  }
+
+  /**
+   * The getLagCompensator method returns the position history of the world,
+   * which the world simulation records entity positions into every tick.
+   *
+   * @return the lag compensator
+   */
+  public LagCompensator getLagCompensator() {
+    return lagCompensator;
+  }
+
+  /**
+   * The newToken method creates an unguessable resume token.
+   *
+   * @return the token
+   */
+  private String newToken() {
+    byte[] bytes = new byte[16];
+    tokenRandom.nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) {
+      token.append(String.format("%02x", b));
+    }
+    return token.toString();
   }
 
   /**
@@ -109,9 +302,14 @@ public class Server extends Application {
    */
   public class ClientHandler extends Thread {
     private Socket clientSocket;
-    private BufferedReader reader;
+    private LineReader reader;
     private BufferedWriter writer;
+    private BlockingQueue<String> outbox = new ArrayBlockingQueue<>(OUTBOX_SIZE);
+    private Thread outboxThread;
     private String clientId;
+    private Session session;
+    private RttEstimator rtt = new RttEstimator();
+    private Deque<Long> outstandingPings = new ArrayDeque<>();
 
     /**
      * Constructor for the ClientHandler class.
@@ -120,7 +318,15 @@ public class Server extends Application {
      */
     public ClientHandler(Socket socket) {
       clientSocket = socket;
-      clientId = clients.size() + " ";
+    }
+
+    /**
+     * Returns the round-trip time and clock offset estimator of the connection.
+     *
+     * @return the estimator
+     */
+    public RttEstimator getRttEstimator() {
+      return rtt;
     }
 
     /**
@@ -135,23 +341,72 @@ public class Server extends Application {
     /**
      * The run method of the ClientHandler thread.
      * It handles communication with the client, receives messages, and broadcasts
-     * them to other clients.
+     * them to other clients. The connection first resumes or opens a session,
+     * unless it is a spectator, which only gets the shared snapshots.
+     * Every line goes through the rate limiter before it is broadcast.
      */
     @Override
     public void run() {
       try {
-        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        reader = new LineReader(new InputStreamReader(clientSocket.getInputStream()),
+            rateLimiter.getMaxLineLength());
         writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
 
-        broadcastMessage("Client" + clientId + "connected");
-        String input;
-        while ((input = reader.readLine()) != null) {
-          broadcastMessage("Client" + clientId + ": " + input);
+        String hello;
+        try {
+          hello = reader.readLine();
+        } catch (LineReader.LineTooLongException e) {
+          hello = null;
+        }
+        if (Protocol.WATCH.equals(hello)) {
+          spectatorFeed.serve(clientSocket.getOutputStream());
+        } else {
+          outboxThread = new Thread(this::runOutbox, "ClientWriter");
+          outboxThread.setDaemon(true);
+          outboxThread.start();
+          long banMillis = banRemaining();
+          if (banMillis > 0) {
+            sendMessage(Protocol.KICKED + " " + banMillis);
+          } else if (hello != null) {
+            session = openSession(hello);
+          }
+        }
+        while (session != null) {
+          String input;
+          RateLimiter.Decision decision;
+          try {
+            input = reader.readLine();
+            if (input == null) {
+              break;
+            }
+            if (handlePong(input)) {
+              continue;
+            }
+            decision = rateLimiter.admit(session.getLimit(), input.length());
+          } catch (LineReader.LineTooLongException e) {
+            input = null;
+            decision = rateLimiter.admitOversized();
+          }
+
+          if (decision == RateLimiter.Decision.ACCEPT) {
+            broadcastMessage("Client" + clientId + ": " + input);
+          } else if (decision == RateLimiter.Decision.KICK) {
+            Platform.runLater(() -> chatTextArea.appendText("Client" + clientId + "kicked for flooding ("
+                + rateLimiter + ")\n"));
+            if (KICK_BAN_MILLIS > 0) {
+              bannedUntil.put(clientSocket.getInetAddress(), System.currentTimeMillis() + KICK_BAN_MILLIS);
+            }
+            session.sendControl(Protocol.KICKED + " " + KICK_BAN_MILLIS);
+            session.expireNow();
+            removeSession(session);
+            break;
+          }
         }
       } catch (IOException e) {
         e.printStackTrace();
       } finally {
 
+        finishOutbox();
         try {
 
           if (reader != null) {
@@ -170,23 +425,182 @@ public class Server extends Application {
 
       }
 
-      removeClient(this);
+      if (session != null) {
+        session.detach(this);
+      }
     }
 
     /**
-     * Sends a message to the client.
+     * The banRemaining method checks if the client's address was kicked
+     * recently. Without the ban a kicked client could reconnect straight away.
+     *
+     * @return the milliseconds left of the ban, or 0 if the address is not banned
+     */
+    private long banRemaining() {
+      Long until = bannedUntil.get(clientSocket.getInetAddress());
+      return until == null ? 0 : Math.max(0, until - System.currentTimeMillis());
+    }
+
+    /**
+     * The openSession method handles the first line of the connection. A RESUME
+     * line with a known token and a sequence number still in the replay buffer
+     * resumes that session; anything else opens a new session, which is sent
+     * the chat history.
+     *
+     * @param hello the first line sent by the client
+     * @return the session
+     */
+    private Session openSession(String hello) {
+      String[] parts = hello.split(" ");
+      if (parts.length == 3 && parts[0].equals(Protocol.RESUME)) {
+        Session resumed = sessions.get(parts[1]);
+        long lastSeq = -1;
+        try {
+          lastSeq = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+          // Treated as a session that cannot be resumed
+        }
+        String greeting = Protocol.RESUMED + " " + parts[1];
+        if (resumed != null && resumed.resume(this, greeting, lastSeq)) {
+          clientId = resumed.getClientID();
+          return resumed;
+        }
+      }
+
+      Session created = new Session(newToken(), nextClientId.getAndIncrement() + " ", rateLimiter.newClient(),
+          REPLAY_BUFFER_SIZE);
+      clientId = created.getClientID();
+      created.attach(this, Protocol.WELCOME + " " + created.getToken());
+      if (chatLog != null) {
+        for (String message : chatLog.tail(HISTORY_SIZE)) {
+          created.deliver(message);
+        }
+      }
+      sessions.put(created.getToken(), created);
+      broadcastMessage("Client" + clientId + "connected");
+      return created;
+    }
+
+    /**
+     * The ping method sends the server clock to the client and remembers it,
+     * so only a reply echoing a ping that was really sent is used as a sample.
+     *
+     * @param sentAt the server clock in milliseconds
+     */
+    public void ping(long sentAt) {
+      synchronized (outstandingPings) {
+        if (outstandingPings.size() == MAX_OUTSTANDING_PINGS) {
+          outstandingPings.removeFirst();
+        }
+        outstandingPings.addLast(sentAt);
+      }
+      sendMessage(Protocol.PING + " " + sentAt);
+    }
+
+    /**
+     * The handlePong method adds a ping/pong sample to the estimator if the line
+     * echoes an outstanding ping. Each ping is answered once, so a client cannot
+     * forge its round-trip time with a made-up server clock. The reply counts
+     * against the client's message bucket.
+     *
+     * @param line the line from the client
+     * @return true if the line was a reply to a ping, false if it is a chat
+     *         message
+     */
+    private boolean handlePong(String line) {
+      String[] parts = line.split(" ");
+      if (parts.length != 3 || !parts[0].equals(Protocol.PONG)) {
+        return false;
+      }
+      long sentAt;
+      long clientTime;
+      try {
+        sentAt = Long.parseLong(parts[1]);
+        clientTime = Long.parseLong(parts[2]);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      synchronized (outstandingPings) {
+        if (!outstandingPings.remove(sentAt)) {
+          return false;
+        }
+      }
+      if (rateLimiter.admitControl(session.getLimit())) {
+        rtt.addSample(sentAt, clientTime, LagCompensator.now());
+      }
+      return true;
+    }
+
+    /**
+     * Queues a message for the client's writer thread. It never blocks, so a
+     * client that stopped reading cannot stall the thread sending to it. If the
+     * client falls OUTBOX_SIZE messages behind, the connection is closed, so the
+     * session is detached and the client can resume.
      *
      * @param message the message to send
      */
     public void sendMessage(String message) {
+      if (!outbox.offer(message)) {
+        close();
+      }
+    }
+
+    /**
+     * The runOutbox method writes the queued messages to the client, flushing
+     * once per batch. If the connection is broken it is closed.
+     */
+    private void runOutbox() {
+      List<String> batch = new ArrayList<>();
+      try {
+        while (true) {
+          batch.add(outbox.take());
+          outbox.drainTo(batch);
+          for (String message : batch) {
+            if (message == END_OF_OUTBOX) {
+              writer.flush();
+              return;
+            }
+            writer.write(message);
+            writer.newLine();
+          }
+          writer.flush();
+          batch.clear();
+        }
+      } catch (IOException e) {
+        close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * The finishOutbox method lets the writer thread send what is queued, such
+     * as a KICKED line, before the connection is closed. A writer stuck on a
+     * client that does not read is given up on after a second.
+     */
+    private void finishOutbox() {
+      if (outboxThread == null) {
+        return;
+      }
+      if (!outbox.offer(END_OF_OUTBOX)) {
+        outboxThread.interrupt();
+      }
+      try {
+        outboxThread.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Closes the connection to the client.
+     */
+    public void close() {
       try {
-        writer.write(message);
-        writer.newLine();
-        writer.flush();
+        clientSocket.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
-
     }
 
   }
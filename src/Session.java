@@ -0,0 +1,153 @@
+/**
+ * Session class represents a client session that outlives its connection.
+ * Messages sent to the session are numbered and kept in a bounded replay buffer,
+ * so a client that reconnects with its resume token only gets what it missed.
+ */
+
+// Session class with the replay buffer and the attached client handler
+public class Session {
+  private final String token;
+  private final String clientId;
+  private final RateLimiter.ClientLimit limit;
+  private final String[] replayBuffer;
+  private long lastSeq;
+  private Server.ClientHandler handler;
+  private long detachedAt;
+  private boolean expired;
+
+  /**
+   * Constructor for the Session class.
+   *
+   * @param token      the resume token of the session
+   * @param clientId   the client ID
+   * @param limit      the rate limits of the client
+   * @param bufferSize the number of messages kept for resuming
+   */
+  public Session(String token, String clientId, RateLimiter.ClientLimit limit, int bufferSize) {
+    this.token = token;
+    this.clientId = clientId;
+    this.limit = limit;
+    this.replayBuffer = new String[bufferSize];
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public String getClientID() {
+    return clientId;
+  }
+
+  public RateLimiter.ClientLimit getLimit() {
+    return limit;
+  }
+
+  /**
+   * Numbers a message, keeps it for resuming and sends it to the attached
+   * client, if any.
+   *
+   * @param message the message to send
+   */
+  public synchronized void deliver(String message) {
+    lastSeq++;
+    replayBuffer[(int) (lastSeq % replayBuffer.length)] = message;
+    if (handler != null) {
+      handler.sendMessage(Protocol.message(lastSeq, message));
+    }
+  }
+
+  /**
+   * Sends a control line that is not numbered or kept for resuming to the
+   * attached client, if any.
+   *
+   * @param line the line to send
+   */
+  public synchronized void sendControl(String line) {
+    if (handler != null) {
+      handler.sendMessage(line);
+    }
+  }
+
+  /**
+   * Pings the attached client, if any.
+   *
+   * @param sentAt the server clock in milliseconds
+   */
+  public synchronized void ping(long sentAt) {
+    if (handler != null) {
+      handler.ping(sentAt);
+    }
+  }
+
+  /**
+   * Attaches the connection of a new session.
+   *
+   * @param handler  the client handler
+   * @param greeting the first line to send to the client
+   */
+  public synchronized void attach(Server.ClientHandler handler, String greeting) {
+    handler.sendMessage(greeting);
+    this.handler = handler;
+  }
+
+  /**
+   * Attaches a new connection to the session and sends it every message after
+   * the last one it received. The previous connection, if still open, is closed.
+   *
+   * @param handler  the client handler
+   * @param greeting the first line to send to the client
+   * @param fromSeq  the last sequence number the client received
+   * @return true if the session was resumed, false if it expired or the
+   *         missed messages are no longer in the replay buffer
+   */
+  public synchronized boolean resume(Server.ClientHandler handler, String greeting, long fromSeq) {
+    if (expired || fromSeq > lastSeq || fromSeq < lastSeq - replayBuffer.length) {
+      return false;
+    }
+    if (this.handler != null) {
+      this.handler.close();
+    }
+    handler.sendMessage(greeting);
+    for (long seq = fromSeq + 1; seq <= lastSeq; seq++) {
+      handler.sendMessage(Protocol.message(seq, replayBuffer[(int) (seq % replayBuffer.length)]));
+    }
+    this.handler = handler;
+    return true;
+  }
+
+  /**
+   * Detaches a connection that was closed. The session stays resumable until
+   * it expires.
+   *
+   * @param handler the client handler whose connection was closed
+   */
+  public synchronized void detach(Server.ClientHandler handler) {
+    if (this.handler == handler) {
+      this.handler = null;
+      detachedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Expires the session if it has been detached for longer than the grace
+   * period. An expired session can no longer be resumed.
+   *
+   * @param now         the current time in milliseconds
+   * @param graceMillis the time a detached session stays resumable
+   * @return true if the session expired, false otherwise
+   */
+  public synchronized boolean expire(long now, long graceMillis) {
+    if (!expired && handler == null && now - detachedAt >= graceMillis) {
+      expired = true;
+    }
+    return expired;
+  }
+
+  /**
+   * Expires the session immediately, for example when the client is kicked.
+   */
+  public synchronized void expireNow() {
+    expired = true;
+  }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Spectator class is a console client for the spectator stream of a room.
+ * It connects to a server or a relay with WATCH and prints every snapshot: the
+ * entity positions and the chat messages that are new since the last snapshot.
+ *
+ * Usage: java Spectator [host] [port]
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Spectator class with the server address and the last chat message printed
+public class Spectator {
+  private static final long RECONNECT_MIN_DELAY = 250;
+  private static final long RECONNECT_MAX_DELAY = 10_000;
+
+  private final String host;
+  private final int port;
+  private final PrintStream out;
+  private long lastChatSeq;
+
+  /**
+   * Constructor for the Spectator class.
+   *
+   * @param host the host of the server or relay
+   * @param port the port of the server or relay
+   * @param out  the stream to print the snapshots to
+   */
+  public Spectator(String host, int port, PrintStream out) {
+    this.host = host;
+    this.port = port;
+    this.out = out;
+  }
+
+  /**
+   * The main method of the Spectator class.
+   *
+   * @param args the host and port of the server or relay
+   */
+  public static void main(String[] args) {
+    String host = args.length > 0 ? args[0] : "localhost";
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.PORT;
+    new Spectator(host, port, System.out).run();
+  }
+
+  /**
+   * The run method watches the room and reconnects with exponential backoff
+   * when the connection drops.
+   */
+  public void run() {
+    long delay = RECONNECT_MIN_DELAY;
+    while (true) {
+      try (Socket socket = new Socket(host, port)) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+            StandardCharsets.UTF_8));
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        writer.write(Protocol.WATCH + "\n");
+        writer.flush();
+        out.println("Watching " + host + ":" + port);
+        delay = RECONNECT_MIN_DELAY;
+        watch(reader);
+      } catch (IOException e) {
+        out.println("Connection lost: " + e.getMessage());
+      }
+
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        return;
+      }
+      delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
+    }
+  }
+
+  /**
+   * The watch method reads snapshots until the connection ends.
+   *
+   * @param reader the reader of the spectator stream
+   * @throws IOException if the stream cannot be read
+   */
+  private void watch(BufferedReader reader) throws IOException {
+    String header = null;
+    List<String> entities = new ArrayList<>();
+    List<Long> chatSeqs = new ArrayList<>();
+    List<String> chat = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] parts = line.split(" ", 2);
+      switch (parts[0]) {
+        case Protocol.SNAPSHOT:
+          header = line;
+          entities.clear();
+          chatSeqs.clear();
+          chat.clear();
+          break;
+        case Protocol.ENTITY:
+          entities.add(parts.length > 1 ? parts[1] : "");
+          break;
+        case Protocol.CHAT:
+          String[] message = parts.length > 1 ? parts[1].split(" ", 2) : new String[0];
+          try {
+            chatSeqs.add(Long.parseLong(message[0]));
+            chat.add(message.length > 1 ? message[1] : "");
+          } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // Not a chat line of this protocol version
+          }
+          break;
+        case Protocol.END:
+          if (header != null) {
+            printSnapshot(header, entities, chatSeqs, chat);
+          }
+          header = null;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * The printSnapshot method prints a snapshot. A snapshot repeats the recent
+   * chat, so only the messages with a sequence number after the last one
+   * already printed are shown. Snapshots with no entities and no new chat are
+   * skipped.
+   *
+   * @param header   the SNAP line
+   * @param entities the entities as "id x y"
+   * @param chatSeqs the sequence numbers of the chat messages
+   * @param chat     the recent chat messages, oldest first
+   */
+  private void printSnapshot(String header, List<String> entities, List<Long> chatSeqs, List<String> chat) {
+    if (!chatSeqs.isEmpty() && chatSeqs.get(chatSeqs.size() - 1) < lastChatSeq) {
+      // The server was restarted and counts from the start again
+      lastChatSeq = 0;
+    }
+    List<String> newChat = new ArrayList<>();
+    for (int i = 0; i < chat.size(); i++) {
+      if (chatSeqs.get(i) > lastChatSeq) {
+        newChat.add(chat.get(i));
+      }
+    }
+    if (entities.isEmpty() && newChat.isEmpty()) {
+      return;
+    }
+
+    String[] parts = header.split(" ");
+    out.println("Tick " + (parts.length > 1 ? parts[1] : "?") + ": " + entities.size() + " entities");
+    for (String entity : entities) {
+      out.println("  " + entity);
+    }
+    for (String message : newChat) {
+      out.println("  " + message);
+    }
+    if (!chatSeqs.isEmpty()) {
+      lastChatSeq = Math.max(lastChatSeq, chatSeqs.get(chatSeqs.size() - 1));
+    }
+  }
+
+}
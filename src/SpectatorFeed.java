@@ -0,0 +1,69 @@
+/**
+ * SpectatorFeed class shares encoded snapshots with every spectator.
+ * A snapshot is encoded once per room tick and the same bytes are written to all
+ * spectators. A spectator that falls behind skips to the latest snapshot
+ * instead of queuing old ones, so slow spectators never hold up the others.
+ */
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// SpectatorFeed class with the latest snapshot and the spectator count
+public class SpectatorFeed {
+  private final AtomicInteger spectatorCount = new AtomicInteger();
+  private byte[] snapshot;
+  private long tick = -1;
+
+  /**
+   * Publishes a new snapshot and wakes up every spectator.
+   *
+   * @param tick    the room tick of the snapshot, which must increase
+   * @param encoded the encoded snapshot
+   */
+  public synchronized void publish(long tick, byte[] encoded) {
+    this.snapshot = encoded;
+    this.tick = tick;
+    notifyAll();
+  }
+
+  /**
+   * Returns the number of spectators being served, so the room can skip
+   * encoding snapshots nobody watches.
+   *
+   * @return the number of spectators
+   */
+  public int getSpectatorCount() {
+    return spectatorCount.get();
+  }
+
+  /**
+   * Writes every new snapshot to a spectator until the connection fails or the
+   * thread is interrupted. It runs on the spectator's own thread.
+   *
+   * @param out the spectator's output stream
+   * @throws IOException if the connection fails
+   */
+  public void serve(OutputStream out) throws IOException {
+    spectatorCount.incrementAndGet();
+    try {
+      long lastTick = -1;
+      while (true) {
+        byte[] encoded;
+        synchronized (this) {
+          while (tick <= lastTick) {
+            wait();
+          }
+          encoded = snapshot;
+          lastTick = tick;
+        }
+        out.write(encoded);
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      spectatorCount.decrementAndGet();
+    }
+  }
+
+}
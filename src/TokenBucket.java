@@ -0,0 +1,70 @@
+/**
+ * TokenBucket class limits the rate of an action.
+ * Tokens are refilled continuously up to the capacity of the bucket.
+ */
+
+// TokenBucket class with the current tokens and refill rate
+public class TokenBucket {
+  private final double capacity;
+  private final double tokensPerNano;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Constructor for the TokenBucket class.
+   * The bucket starts full.
+   *
+   * @param capacity        the largest burst the bucket allows
+   * @param tokensPerSecond the rate at which tokens are refilled
+   */
+  public TokenBucket(double capacity, double tokensPerSecond) {
+    this.capacity = capacity;
+    this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+    this.tokens = capacity;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * Takes tokens from the bucket if there are enough of them.
+   *
+   * @param amount the number of tokens to take
+   * @return true if the tokens were taken, false otherwise
+   */
+  public synchronized boolean tryConsume(double amount) {
+    refill();
+    if (tokens >= amount) {
+      tokens -= amount;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Takes tokens from the bucket even if there are not enough of them, going
+   * into debt that is repaid by later refills.
+   *
+   * @param amount the number of tokens to take
+   * @return the time in nanoseconds until the debt is repaid, 0 if there was no debt
+   */
+  public synchronized long reserve(double amount) {
+    refill();
+    tokens -= amount;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+  }
+
+  /**
+   * Puts back tokens taken by tryConsume or reserve.
+   *
+   * @param amount the number of tokens to put back
+   */
+  public synchronized void refund(double amount) {
+    tokens = Math.min(capacity, tokens + amount);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+    lastRefill = now;
+  }
+
+}
@@ -1,70 +1,476 @@
-import java.io.File;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 
 public class XMLGenerator {
+    private static final int BATCH_SIZE = 1024;
+
+    private static final Pattern CLASS_PATTERN = Pattern.compile(
+            "\\b(?:class|interface|enum|record)\\s+([A-Za-z_$][\\w$]*)");
+    private static final Pattern METHOD_PATTERN = Pattern.compile(
+            "([A-Za-z_$][\\w$]*)\\s*\\(([^()]*)\\)\\s*(?:throws\\s+[\\w$.,\\s]+)?\\{");
+    private static final Pattern PREVIOUS_WORD = Pattern.compile("([\\w$]+)\\s*$");
+    private static final Set<String> NOT_METHODS = new HashSet<>(Arrays.asList(
+            "if", "for", "while", "switch", "catch", "synchronized", "try", "return", "new", "else", "do"));
+
     public static void main(String[] args) {
-        String path = "src/";
-        List<String> javaFiles = getJavaFiles(path);
+        Path root = Paths.get(args.length > 0 ? args[0] : "src/");
+        Path output = Paths.get(args.length > 1 ? args[1] : "java_files.xml");
+
+        AtomicInteger parsed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool();
+        Path temp = output.toAbsolutePath().resolveSibling(output.getFileName() + ".tmp");
+        boolean moved = false;
 
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder;
         try {
-            dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.newDocument();
+            int count;
+            // The previous index is closed before it is replaced, which Windows requires
+            try (IndexCursor previous = IndexCursor.open(output);
+                    OutputStream out = Files.newOutputStream(temp)) {
+                count = writeIndex(root, new SortedWalk(root), out, previous, parsed, skipped, pool);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
 
-            Element rootElement = doc.createElement("JavaFiles");
-            doc.appendChild(rootElement);
+            System.out.println("XML file generated successfully! (" + count + " files, " + parsed.get()
+                    + " parsed, " + skipped.get() + " skipped)");
+        } catch (IOException | XMLStreamException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-            for (String javaFile : javaFiles) {
-                Element fileElement = doc.createElement("File");
-                rootElement.appendChild(fileElement);
+    /**
+     * Streams the index of every Java file to the output. Files are indexed in
+     * parallel batches so only one batch of results is held in memory. The walk
+     * and the previous index are both in path order, so cached entries are found
+     * by reading the previous index alongside the walk.
+     */
+    private static int writeIndex(Path root, Iterator<Path> javaFiles, OutputStream out, IndexCursor previous,
+            AtomicInteger parsed, AtomicInteger skipped, ForkJoinPool pool)
+            throws XMLStreamException, InterruptedException, ExecutionException {
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeCharacters("\n");
+        writer.writeStartElement("JavaFiles");
 
-                Element nameElement = doc.createElement("Name");
-                nameElement.appendChild(doc.createTextNode(javaFile));
-                fileElement.appendChild(nameElement);
+        int count = 0;
+        while (javaFiles.hasNext()) {
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            List<String> relatives = new ArrayList<>(BATCH_SIZE);
+            List<FileInfo> cached = new ArrayList<>(BATCH_SIZE);
+            while (javaFiles.hasNext() && batch.size() < BATCH_SIZE) {
+                Path path = javaFiles.next();
+                String relative = root.relativize(path).toString().replace('\\', '/');
+                batch.add(path);
+                relatives.add(relative);
+                cached.add(previous.find(relative));
+            }
+            List<FileInfo> infos = pool.submit(() -> IntStream.range(0, batch.size()).parallel()
+                    .mapToObj(i -> indexFile(batch.get(i), relatives.get(i), cached.get(i), parsed))
+                    .collect(Collectors.toList())).get();
+            for (FileInfo info : infos) {
+                if (info == null) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                writeFile(writer, info);
+                count++;
             }
+        }
 
-            // Output the XML to a file
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(new File("java_files.xml"));
-            transformer.transform(source, result);
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return count;
+    }
 
-            System.out.println("XML file generated successfully!");
-        } catch (ParserConfigurationException | TransformerException e) {
-            e.printStackTrace();
+    /**
+     * Indexes a file, reusing the previous index entry if the file has the same
+     * size and modification time, or the same hash. A file that cannot be read
+     * is logged and skipped.
+     *
+     * @return the index entry, or null if the file could not be read
+     */
+    private static FileInfo indexFile(Path path, String relative, FileInfo cached, AtomicInteger parsed) {
+        try {
+            long size = Files.size(path);
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            if (cached != null && cached.size == size && cached.modified == modified) {
+                return cached;
+            }
+
+            byte[] content = Files.readAllBytes(path);
+            String sha256 = sha256(content);
+            if (cached != null && cached.sha256.equals(sha256)) {
+                return new FileInfo(relative, content.length, modified, sha256, cached.classes, cached.methods);
+            }
+
+            parsed.incrementAndGet();
+            String source = stripCommentsAndLiterals(new String(content, StandardCharsets.UTF_8));
+            return new FileInfo(relative, content.length, modified, sha256, findClasses(source),
+                    findMethods(source));
+        } catch (IOException e) {
+            System.out.println("Skipping " + path + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Compares two relative paths by their names, directory by directory. This
+     * is the order in which SortedWalk returns files.
+     */
+    static int comparePaths(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                // A separator ends a name, so it sorts before any other character
+                return x == '/' ? -1 : y == '/' ? 1 : Character.compare(x, y);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private static List<String> findClasses(String source) {
+        List<String> classes = new ArrayList<>();
+        Matcher matcher = CLASS_PATTERN.matcher(source);
+        while (matcher.find()) {
+            classes.add(matcher.group(1));
+        }
+        return classes;
+    }
+
+    private static List<String> findMethods(String source) {
+        List<String> methods = new ArrayList<>();
+        Matcher matcher = METHOD_PATTERN.matcher(source);
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            if (NOT_METHODS.contains(name)) {
+                continue;
+            }
+            // Skip anonymous classes such as "new Thread() {"
+            Matcher before = PREVIOUS_WORD.matcher(source.substring(Math.max(0, matcher.start() - 64),
+                    matcher.start()));
+            if (before.find() && before.group(1).equals("new")) {
+                continue;
+            }
+            methods.add(name);
+        }
+        return methods;
+    }
+
+    /**
+     * Blanks out comments, string literals and character literals so the
+     * patterns only match real declarations.
+     */
+    private static String stripCommentsAndLiterals(String source) {
+        StringBuilder result = new StringBuilder(source.length());
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+                result.append(' ');
+            } else if (c == '"' || c == '\'') {
+                i++;
+                while (i < source.length() && source.charAt(i) != c && source.charAt(i) != '\n') {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+                i++;
+                result.append(c).append(c);
+            } else {
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
-    private static List<String> getJavaFiles(String path) {
-        List<String> javaFiles = new ArrayList<>();
+    private static void writeFile(XMLStreamWriter writer, FileInfo info) throws XMLStreamException {
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("File");
+        writer.writeAttribute("path", info.path);
+        writer.writeAttribute("size", Long.toString(info.size));
+        writer.writeAttribute("modified", Long.toString(info.modified));
+        writer.writeAttribute("sha256", info.sha256);
 
-        File directory = new File(path);
-        File[] files = directory.listFiles();
+        writer.writeCharacters("\n    ");
+        writer.writeStartElement("Name");
+        writer.writeCharacters(info.path.substring(info.path.lastIndexOf('/') + 1));
+        writer.writeEndElement();
+        for (String className : info.classes) {
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement("Class");
+            writer.writeCharacters(className);
+            writer.writeEndElement();
+        }
+        for (String method : info.methods) {
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement("Method");
+            writer.writeCharacters(method);
+            writer.writeEndElement();
+        }
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+    }
+
+    /**
+     * Walks a directory tree depth first, listing each directory in name order
+     * and returning its Java files. Only the listings of the directories on the
+     * current path are held in memory. A directory that cannot be listed is
+     * logged and skipped.
+     */
+    private static class SortedWalk implements Iterator<Path> {
+        private final Deque<Iterator<Path>> stack = new ArrayDeque<>();
+        private Path next;
+
+        SortedWalk(Path root) {
+            if (Files.isDirectory(root)) {
+                push(root);
+            } else {
+                stack.push(Arrays.asList(root).iterator());
+            }
+        }
+
+        private void push(Path directory) {
+            try (Stream<Path> children = Files.list(directory)) {
+                stack.push(children.sorted(Comparator.comparing((Path child) -> child.getFileName().toString()))
+                        .collect(Collectors.toList()).iterator());
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Skipping " + directory + ": " + e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !stack.isEmpty()) {
+                Iterator<Path> top = stack.peek();
+                if (!top.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Path path = top.next();
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    push(path);
+                } else if (Files.isRegularFile(path) && path.toString().endsWith(".java")) {
+                    next = path;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path path = next;
+            next = null;
+            return path;
+        }
+    }
+
+    /**
+     * Reads the previous index one entry at a time, to use as a cache. A missing
+     * or unreadable index just means the remaining files are parsed again.
+     */
+    private static class IndexCursor implements Closeable {
+        private final InputStream in;
+        private final XMLStreamReader reader;
+        private FileInfo current;
+
+        private IndexCursor(InputStream in, XMLStreamReader reader) {
+            this.in = in;
+            this.reader = reader;
+            current = read();
+        }
+
+        static IndexCursor open(Path index) {
+            if (!Files.isRegularFile(index)) {
+                return new IndexCursor(null, null);
+            }
+            InputStream in = null;
+            try {
+                in = Files.newInputStream(index);
+                return new IndexCursor(in, XMLInputFactory.newInstance().createXMLStreamReader(in));
+            } catch (IOException | XMLStreamException e) {
+                System.out.println("Ignoring previous index: " + e.getMessage());
+                closeQuietly(in);
+                return new IndexCursor(null, null);
+            }
+        }
 
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(".java")) {
-                    javaFiles.add(file.getName());
+        /**
+         * Returns the previous entry of a file. Paths must be asked for in the
+         * order of comparePaths; entries before the path belong to files that
+         * no longer exist and are passed over.
+         *
+         * @return the previous entry, or null if the file is not in the index
+         */
+        FileInfo find(String path) {
+            while (current != null && comparePaths(current.path, path) < 0) {
+                current = read();
+            }
+            if (current == null || !current.path.equals(path)) {
+                return null;
+            }
+            FileInfo found = current;
+            current = read();
+            return found;
+        }
+
+        private FileInfo read() {
+            if (reader == null) {
+                return null;
+            }
+            try {
+                FileInfo info = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("File")
+                            && info != null) {
+                        return info;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "File":
+                            String path = reader.getAttributeValue(null, "path");
+                            String size = reader.getAttributeValue(null, "size");
+                            String modified = reader.getAttributeValue(null, "modified");
+                            String sha256 = reader.getAttributeValue(null, "sha256");
+                            info = path == null || size == null || modified == null || sha256 == null ? null
+                                    : new FileInfo(path, Long.parseLong(size), Long.parseLong(modified), sha256,
+                                            new ArrayList<>(), new ArrayList<>());
+                            break;
+                        case "Class":
+                            if (info != null) {
+                                info.classes.add(reader.getElementText());
+                            }
+                            break;
+                        case "Method":
+                            if (info != null) {
+                                info.methods.add(reader.getElementText());
+                            }
+                            break;
+                        default:
+                            break;
+                    }
                 }
+            } catch (XMLStreamException | NumberFormatException e) {
+                System.out.println("Ignoring rest of previous index: " + e.getMessage());
             }
+            close();
+            return null;
         }
 
-        return javaFiles;
+        @Override
+        public void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // The stream is closed below anyway
+                }
+            }
+            closeQuietly(in);
+        }
+
+        private static void closeQuietly(InputStream in) {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class FileInfo {
+        final String path;
+        final long size;
+        final long modified;
+        final String sha256;
+        final List<String> classes;
+        final List<String> methods;
+
+        FileInfo(String path, long size, long modified, String sha256, List<String> classes,
+                List<String> methods) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+            this.classes = classes;
+            this.methods = methods;
+        }
     }
 }